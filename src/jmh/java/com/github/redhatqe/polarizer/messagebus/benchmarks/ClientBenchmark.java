@@ -0,0 +1,82 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.github.redhatqe.polarizer.messagebus.CIBusPublisher;
+import com.github.redhatqe.polarizer.messagebus.ICIBus;
+import com.github.redhatqe.polarizer.messagebus.JMSMessageOptions;
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.reporter.configuration.Serializer;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-message and per-client work done outside of the broker: copying options onto a message, and reading a
+ * broker config file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-jmh.yaml")
+public class ClientBenchmark {
+    @Param({"2", "16"})
+    int properties;
+
+    private JMSMessageOptions opts;
+    private File yaml;
+    private File json;
+
+    @Setup
+    public void setup() throws IOException {
+        this.opts = new JMSMessageOptions("bench", Payloads.properties(this.properties));
+        this.opts.setCorrelationID("bench-correlation");
+
+        BrokerConfig cfg = Payloads.config("ssl://broker.example.com:61616");
+        cfg.addBroker("metrics", new Broker("tcp://metrics.example.com:61613", "user", "pw", 60000L, 1));
+        this.yaml = Files.createTempFile("broker-config", ".yml").toFile();
+        this.json = Files.createTempFile("broker-config", ".json").toFile();
+        Serializer.toYaml(cfg, this.yaml.getPath());
+        Serializer.toJson(cfg, this.json.getPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.yaml.delete();
+        this.json.delete();
+    }
+
+    @Benchmark
+    public ActiveMQTextMessage setOptionals() {
+        ActiveMQTextMessage msg = new ActiveMQTextMessage();
+        CIBusPublisher.setOptionals(msg, this.opts);
+        return msg;
+    }
+
+    @Benchmark
+    public Optional<BrokerConfig> configFromYaml() {
+        return ICIBus.getConfigFromPath(BrokerConfig.class, this.yaml.getPath());
+    }
+
+    @Benchmark
+    public Optional<BrokerConfig> configFromJson() {
+        return ICIBus.getConfigFromPath(BrokerConfig.class, this.json.getPath());
+    }
+}
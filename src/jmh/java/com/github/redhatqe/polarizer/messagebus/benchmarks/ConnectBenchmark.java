@@ -0,0 +1,174 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.github.redhatqe.polarizer.messagebus.CIBusPublisher;
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.messagebus.pool.FactoryCache;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.SslContext;
+import org.apache.activemq.broker.TransportConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Opening and closing a connection to an embedded broker over tcp and over ssl, with the factory from FactoryCache
+ * against a new factory every time
+ *
+ * For ssl, setup generates a self-signed key store and a trust store holding its certificate with the JDK's keytool.
+ * The broker and the client both use them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-jmh.yaml")
+public class ConnectBenchmark {
+    private static final String STORE_PASSWORD = "connect-bench";
+
+    @Param({"cached", "fresh"})
+    String factory;
+
+    @Param({"tcp", "ssl"})
+    String transport;
+
+    private BrokerService service;
+    private CIBusPublisher client;
+    private Broker broker;
+    private String url;
+    private Path stores;
+
+    @Setup
+    public void setup() throws Exception {
+        boolean ssl = this.transport.equals("ssl");
+        Path keystore = null;
+        Path truststore = null;
+        if (ssl) {
+            this.stores = Files.createTempDirectory("connect-bench");
+            keystore = this.stores.resolve("broker.jks");
+            truststore = this.stores.resolve("trust.jks");
+            generateStores(keystore, truststore);
+        }
+
+        this.service = new BrokerService();
+        this.service.setBrokerName("connect");
+        this.service.setPersistent(false);
+        this.service.setUseJmx(false);
+        this.service.setUseShutdownHook(false);
+        if (ssl)
+            this.service.setSslContext(sslContext(keystore, truststore));
+        TransportConnector connector = this.service.addConnector(ssl ? "ssl://localhost:0" : "tcp://localhost:0");
+        this.service.start();
+        this.service.waitUntilStarted();
+
+        this.url = connector.getConnectUri().toString();
+        BrokerConfig cfg = Payloads.config(this.url);
+        this.broker = cfg.getBrokers().get(cfg.getDefaultBroker());
+        if (ssl) {
+            this.broker.setKeystorePath(keystore.toString());
+            this.broker.setKeystorePassword(STORE_PASSWORD);
+            this.broker.setKeystoreKeyPassword(STORE_PASSWORD);
+            this.broker.setTruststorePath(truststore.toString());
+            this.broker.setTruststorePassword(STORE_PASSWORD);
+        }
+        this.client = new CIBusPublisher(cfg);
+        FactoryCache.clear();
+    }
+
+    /**
+     * Creates a key store with a new self-signed key for localhost, and a trust store with its certificate
+     */
+    private static void generateStores(Path keystore, Path truststore) throws IOException, InterruptedException {
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Path cert = keystore.resolveSibling("broker.cer");
+        keytool(keytool, "-genkeypair", "-alias", "broker", "-keyalg", "RSA", "-keysize", "2048",
+                "-dname", "CN=localhost", "-validity", "2", "-storetype", "JKS", "-keystore", keystore.toString(),
+                "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD);
+        keytool(keytool, "-exportcert", "-alias", "broker", "-keystore", keystore.toString(),
+                "-storepass", STORE_PASSWORD, "-file", cert.toString());
+        keytool(keytool, "-importcert", "-noprompt", "-alias", "broker", "-file", cert.toString(),
+                "-storetype", "JKS", "-keystore", truststore.toString(), "-storepass", STORE_PASSWORD);
+    }
+
+    private static void keytool(String... command) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] out = new byte[8192];
+        StringBuilder output = new StringBuilder();
+        try (InputStream is = p.getInputStream()) {
+            int n;
+            while ((n = is.read(out)) > 0)
+                output.append(new String(out, 0, n, StandardCharsets.UTF_8));
+        }
+        if (p.waitFor() != 0)
+            throw new IOException(String.format("%s failed: %s", String.join(" ", command), output));
+    }
+
+    private static SslContext sslContext(Path keystore, Path truststore) throws IOException, GeneralSecurityException {
+        char[] pw = STORE_PASSWORD.toCharArray();
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(load(keystore, pw), pw);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(load(truststore, pw));
+        return new SslContext(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+    }
+
+    private static KeyStore load(Path path, char[] pw) throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (InputStream is = Files.newInputStream(path)) {
+            ks.load(is, pw);
+        }
+        return ks;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.client.close();
+        FactoryCache.clear();
+        this.service.stop();
+        this.service.waitUntilStopped();
+        if (this.stores != null) {
+            try (Stream<Path> files = Files.list(this.stores)) {
+                for (Path f : (Iterable<Path>) files::iterator)
+                    Files.delete(f);
+            }
+            Files.delete(this.stores);
+        }
+    }
+
+    @Benchmark
+    public Connection connect() throws JMSException {
+        ActiveMQConnectionFactory f = this.factory.equals("cached")
+                ? this.client.setupFactory(this.url, this.broker)
+                : this.client.createFactory(this.url, this.broker);
+        Connection conn = f.createConnection();
+        conn.start();
+        conn.close();
+        return conn;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.CIBusListener;
+import com.github.redhatqe.polarizer.messagebus.DefaultResult;
+import com.github.redhatqe.polarizer.messagebus.IMessageListener;
+import org.apache.activemq.command.ActiveMQMapMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.JMSException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a MapMessage of mixed field types, from narrow to wide
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-jmh.yaml")
+public class MapParseBenchmark {
+    @Param({"8", "256"})
+    int fields;
+
+    private CIBusListener<DefaultResult> listener;
+    private ActiveMQMapMessage msg;
+
+    @Setup
+    public void setup() throws JMSException {
+        this.listener = new CIBusListener<>(IMessageListener.defaultHandler(), Payloads.config(Payloads.vmUrl("map")));
+        this.msg = Payloads.mapMessage(this.fields);
+    }
+
+    @Benchmark
+    public ObjectNode parseMap() throws JMSException {
+        return this.listener.parseMessage(this.msg);
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.CIBusListener;
+import com.github.redhatqe.polarizer.messagebus.DefaultResult;
+import com.github.redhatqe.polarizer.messagebus.MessageHandler;
+import com.github.redhatqe.polarizer.messagebus.MessageResult;
+import com.github.redhatqe.polarizer.messagebus.TypedMessageHandler;
+import com.github.redhatqe.polarizer.messagebus.XUnitImportResult;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a TextMessage holding an XUnit importer reply, alone and followed by xunitMsgHandler
+ *
+ * Compares the whole tree with streaming mode (only the paths the handler declares), and both with binding straight
+ * to XUnitImportResult as setTypedHandler does.  Add -prof gc to the JMH arguments to see the allocation per parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-jmh.yaml")
+public class ParseBenchmark {
+    @Param({"10", "1000"})
+    int suites;
+
+    @Param({"false", "true"})
+    boolean streaming;
+
+    private CIBusListener<DefaultResult> listener;
+    private MessageHandler<DefaultResult> handler;
+    private TypedMessageHandler<XUnitImportResult, DefaultResult> typed;
+    private ObjectReader reader;
+    private ActiveMQTextMessage msg;
+
+    @Setup
+    public void setup() throws JMSException {
+        this.handler = MessageHandler.withPaths(CIBusListener.xunitMsgHandler(),
+                CIBusListener.XUNIT_REPLY_PATHS.toArray(new String[0]));
+        this.typed = CIBusListener.xunitTypedHandler();
+        this.reader = Json.readerFor(XUnitImportResult.class);
+        // parseMessage never connects, so the url doesn't need to point at a running broker
+        this.listener = new CIBusListener<>(this.handler, Payloads.config(Payloads.vmUrl("parse")));
+        this.listener.setStreaming(this.streaming);
+        this.msg = new ActiveMQTextMessage();
+        this.msg.setText(Payloads.xunitReply(this.suites, false));
+    }
+
+    @Benchmark
+    public ObjectNode parseText() throws JMSException {
+        return this.listener.parseMessage(this.msg);
+    }
+
+    @Benchmark
+    public MessageResult<DefaultResult> xunitPipeline() throws JMSException {
+        return this.handler.handle(this.listener.parseMessage(this.msg));
+    }
+
+    @Benchmark
+    public MessageResult<DefaultResult> xunitTyped() throws JMSException, IOException {
+        String text = this.msg.getText();
+        XUnitImportResult reply = this.reader.readValue(text);
+        return this.typed.handle(reply, text);
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import com.github.redhatqe.polarizer.messagebus.utils.PayloadLog;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What logging a payload costs per message, with DEBUG on and off for the logger
+ *
+ * prettyInfo is what the listener used to do for every message: pretty-print the whole tree and log it at INFO.
+ * log4j2-jmh.yaml sends the bench loggers to a Null appender, so only the formatting and the logging calls are
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-jmh.yaml")
+public class PayloadLogBenchmark {
+    @Param({"ALL", "SAMPLED", "OFF"})
+    PayloadLog.Mode mode;
+
+    @Param({"true", "false"})
+    boolean debug;
+
+    private Logger logger;
+    private PayloadLog payloadLog;
+    private ActiveMQTextMessage msg;
+    private String text;
+    private JsonNode root;
+
+    @Setup
+    public void setup() throws IOException, JMSException {
+        // log4j2-jmh.yaml has bench.debug at DEBUG and bench.info at INFO
+        this.logger = LoggerFactory.getLogger(this.debug ? "bench.debug" : "bench.info");
+        this.payloadLog = new PayloadLog(this.mode, 100, PayloadLog.DEFAULT_MAX_CHARS, false);
+        this.text = Payloads.xunitReply(1000, false);
+        this.root = Json.TREE_READER.readTree(this.text);
+        this.msg = new ActiveMQTextMessage();
+        this.msg.setText(this.text);
+        this.msg.setStringProperty("rhsm_qe", "polarize");
+    }
+
+    @Benchmark
+    public void prettyInfo() throws JsonProcessingException {
+        this.logger.info(Json.PRETTY_WRITER.writeValueAsString(this.root));
+    }
+
+    @Benchmark
+    public void logMessage() {
+        this.payloadLog.logMessage(this.logger, this.msg, this.text);
+    }
+
+    @Benchmark
+    public void logResult() {
+        this.payloadLog.logResult(this.logger, this.root);
+    }
+}
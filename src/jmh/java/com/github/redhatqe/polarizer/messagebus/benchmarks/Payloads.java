@@ -0,0 +1,114 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQMapMessage;
+
+import javax.jms.JMSException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Messages, configs and brokers shared by the benchmarks
+ */
+public class Payloads {
+    /**
+     * Consumer queue of the default publish topic, so a listener on it sees what CIBusPublisher sends
+     */
+    public static final String CONSUMER_QUEUE = "Consumer.bench.VirtualTopic.qe.ci.jenkins";
+
+    /**
+     * @param suites number of entries in import-results
+     * @param passed whether the reply says the import passed
+     * @return an XUnit importer reply like the ones Polarion sends back
+     */
+    public static String xunitReply(int suites, boolean passed) {
+        ObjectNode root = Json.NODES.objectNode();
+        root.put("status", passed ? "passed" : "failed");
+        root.put("testrun-url", "https://polarion.example.com/polarion/#/project/RHEL6/testrun?id=bench_run");
+        root.put("log-url", "https://polarion.example.com/import/xunit-log?jobId=12345");
+        root.put("message", passed ? "" : "Import failed");
+        ArrayNode results = root.putArray("import-results");
+        for (int i = 0; i < suites; i++) {
+            ObjectNode suite = results.addObject();
+            suite.put("suite-name", "suite-" + i);
+            // make about one in ten fail, so the failed branch of the handler has something to collect
+            suite.put("status", passed || i % 10 != 0 ? "passed" : "failed");
+            suite.put("testcases", 25);
+            suite.put("duration", 1.5 * i);
+        }
+        try {
+            return Json.WRITER.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param fields number of map entries, cycling through strings, ints, longs, doubles, booleans and bytes
+     * @return a MapMessage like the ones some producers send
+     */
+    public static ActiveMQMapMessage mapMessage(int fields) throws JMSException {
+        ActiveMQMapMessage mm = new ActiveMQMapMessage();
+        for (int i = 0; i < fields; i++) {
+            String name = "field" + i;
+            switch (i % 6) {
+                case 0: mm.setString(name, "value-" + i); break;
+                case 1: mm.setInt(name, i); break;
+                case 2: mm.setLong(name, System.currentTimeMillis() + i); break;
+                case 3: mm.setDouble(name, i / 3.0); break;
+                case 4: mm.setBoolean(name, i % 4 == 0); break;
+                default: mm.setBytes(name, new byte[64]); break;
+            }
+        }
+        mm.setStringProperty("type", "bench");
+        return mm;
+    }
+
+    /**
+     * @return the properties a CI job usually puts on its messages
+     */
+    public static Map<String, String> properties(int count) {
+        Map<String, String> props = new HashMap<>();
+        props.put("rhsm_qe", "polarize");
+        props.put("job-id", "12345");
+        for (int i = 2; i < count; i++)
+            props.put("prop" + i, "value-" + i);
+        return props;
+    }
+
+    /**
+     * @param url broker url, usually vm://name?create=false for an embedded broker
+     * @return a config with a single broker and no credentials
+     */
+    public static BrokerConfig config(String url) {
+        return new BrokerConfig("ci", url, "", "", 10000L, 1);
+    }
+
+    /**
+     * Starts a non-persistent broker without JMX, reachable at vm://name?create=false
+     *
+     * @param name name of the broker
+     * @param connectors extra transport connectors, eg tcp://localhost:0
+     */
+    public static BrokerService startBroker(String name, String... connectors) throws Exception {
+        BrokerService service = new BrokerService();
+        service.setBrokerName(name);
+        service.setPersistent(false);
+        service.setUseJmx(false);
+        service.setUseShutdownHook(false);
+        for (String c : connectors)
+            service.addConnector(c);
+        service.start();
+        service.waitUntilStarted();
+        return service;
+    }
+
+    public static String vmUrl(String name) {
+        return String.format("vm://%s?create=false", name);
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.github.redhatqe.polarizer.messagebus.utils.BoundedRing;
+import org.apache.commons.collections4.queue.CircularFifoQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several producers and one consumer on the listener's result ring, against the CircularFifoQueue it replaced guarded
+ * by a lock, which is what the old queue needed to be safe
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark {
+    private final BoundedRing<Integer> ring = new BoundedRing<>(20);
+    private final CircularFifoQueue<Integer> fifo = new CircularFifoQueue<>(20);
+    private final Integer value = 42;
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(4)
+    public void ringAdd() {
+        this.ring.add(this.value);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public Integer ringPoll() {
+        return this.ring.poll();
+    }
+
+    @Benchmark
+    @Group("fifo")
+    @GroupThreads(4)
+    public void fifoAdd() {
+        synchronized (this.fifo) {
+            this.fifo.add(this.value);
+        }
+    }
+
+    @Benchmark
+    @Group("fifo")
+    @GroupThreads(1)
+    public Integer fifoPoll() {
+        synchronized (this.fifo) {
+            return this.fifo.poll();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.redhatqe.polarizer.messagebus.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.CIBusListener;
+import com.github.redhatqe.polarizer.messagebus.CIBusPublisher;
+import com.github.redhatqe.polarizer.messagebus.DefaultResult;
+import com.github.redhatqe.polarizer.messagebus.JMSMessageOptions;
+import com.github.redhatqe.polarizer.messagebus.MessageResult;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import org.apache.activemq.broker.BrokerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes an XUnit importer reply and waits until the listener has parsed and handled it, through an embedded
+ * broker over vm://
+ *
+ * With pooled=false every publish opens and closes its own connection, as sendMessage does outside of pooled mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-jmh.yaml")
+public class RoundTripBenchmark {
+    private static final String BROKER = "roundtrip";
+
+    @Param({"true", "false"})
+    boolean pooled;
+
+    @Param({"10", "1000"})
+    int suites;
+
+    private BrokerService service;
+    private CIBusPublisher publisher;
+    private CIBusListener<DefaultResult> listener;
+    private Connection listening;
+    private final BlockingQueue<ObjectNode> handled = new LinkedBlockingQueue<>();
+    private JMSMessageOptions opts;
+    private String body;
+
+    @Setup
+    public void setup() throws Exception {
+        this.service = Payloads.startBroker(BROKER);
+        BrokerConfig cfg = Payloads.config(Payloads.vmUrl(BROKER));
+
+        this.listener = new CIBusListener<>(node -> {
+            this.handled.offer(node);
+            return new MessageResult<>(node, MessageResult.Status.SUCCESS);
+        }, cfg);
+        this.listening = this.listener
+                .tapIntoMessageBus("", this.listener.createListener(this.listener.messageParser()),
+                        Payloads.CONSUMER_QUEUE)
+                .orElseThrow(() -> new IllegalStateException("Could not connect the listener to the broker"));
+
+        this.publisher = new CIBusPublisher(cfg);
+        this.publisher.setPooled(this.pooled);
+        this.opts = new JMSMessageOptions("bench", Payloads.properties(4));
+        this.body = Payloads.xunitReply(this.suites, true);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.publisher.close();
+        this.listening.close();
+        this.service.stop();
+        this.service.waitUntilStopped();
+    }
+
+    @Benchmark
+    public ObjectNode publishAndReceive() throws InterruptedException, JMSException {
+        Optional<Connection> conn = this.publisher.sendMessage(this.body, Payloads.vmUrl(BROKER), this.opts);
+        if (conn.isPresent())
+            conn.get().close();
+        ObjectNode node = this.handled.poll(10, TimeUnit.SECONDS);
+        if (node == null)
+            throw new IllegalStateException("The message was not received within 10 seconds");
+        return node;
+    }
+}
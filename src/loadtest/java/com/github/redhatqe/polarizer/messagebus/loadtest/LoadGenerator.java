@@ -0,0 +1,292 @@
+package com.github.redhatqe.polarizer.messagebus.loadtest;
+
+import com.github.redhatqe.polarizer.messagebus.CIBusListener;
+import com.github.redhatqe.polarizer.messagebus.CIBusPublisher;
+import com.github.redhatqe.polarizer.messagebus.DefaultResult;
+import com.github.redhatqe.polarizer.messagebus.IMessageListener;
+import com.github.redhatqe.polarizer.messagebus.JMSMessageOptions;
+import com.github.redhatqe.polarizer.messagebus.MessageResult;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.messagebus.exceptions.InvalidConfigError;
+import com.github.redhatqe.polarizer.messagebus.metrics.LatencyHistogram;
+import com.github.redhatqe.polarizer.messagebus.metrics.Metrics;
+import com.github.redhatqe.polarizer.messagebus.pool.PoolSettings;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives synthetic XUnit and TestCase importer replies through CIBusPublisher and CIBusListener at a fixed rate, via
+ * an embedded broker, and reports throughput and publish-to-handle latency
+ *
+ * The load is open-loop: message i is due at start + i / rate whether or not earlier messages have gone out yet.  A
+ * sender that falls behind sends its late messages right away, and their latency is counted from when they were due,
+ * not from when they were sent.  That is what corrects for coordinated omission: a stall in the publisher or broker
+ * shows up in the percentiles as all the messages that should have been sent during it, instead of as a single slow
+ * one.  The uncorrected latency (from the actual send) is printed as well, and the gap between the two is how much
+ * the clients themselves fell behind.
+ *
+ * Options, all of the form --name=value:
+ * <pre>
+ *     --rate=100          messages per second
+ *     --duration=60       seconds to send for, after the warmup
+ *     --warmup=10         seconds to send for before recording latencies
+ *     --senders=4         publishing threads
+ *     --consumers=1       listener sessions (see CIBusListener.setConcurrency)
+ *     --xunit=0.7         fraction of the messages that are XUnit replies, the rest are TestCase replies
+ *     --transport=tcp     tcp or vm, how the clients reach the embedded broker
+ *     --pooled=true       publish on pooled connections, or open one per message
+ *     --streaming=false   parse in streaming mode
+ *     --samples=256       number of distinct messages to cycle through
+ * </pre>
+ *
+ * Since latency is measured in a single process, every time is from the same System.nanoTime clock.
+ */
+public class LoadGenerator {
+    private static Logger logger = LoggerFactory.getLogger(LoadGenerator.class.getName());
+    private static final String BROKER = "loadtest";
+    private static final String CONSUMER_QUEUE = "Consumer.loadtest." + CIBusPublisher.DEFAULT_PUBLISH_DEST;
+    // Message properties carrying the times, in System.nanoTime, the message was due and was actually sent
+    private static final String DUE = "loadgen_due";
+    private static final String SENT = "loadgen_sent";
+
+    static class Options {
+        Integer rate = 100;
+        Integer duration = 60;
+        Integer warmup = 10;
+        Integer senders = 4;
+        Integer consumers = 1;
+        Double xunit = 0.7;
+        String transport = "tcp";
+        Boolean pooled = true;
+        Boolean streaming = false;
+        Integer samples = 256;
+
+        static Options parse(String[] args) {
+            Options opts = new Options();
+            for (String arg : args) {
+                if (arg.isEmpty())
+                    continue;
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0)
+                    throw new InvalidConfigError(String.format("Expected --name=value, got %s", arg));
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                try {
+                    switch (name) {
+                        case "rate": opts.rate = Integer.valueOf(value); break;
+                        case "duration": opts.duration = Integer.valueOf(value); break;
+                        case "warmup": opts.warmup = Integer.valueOf(value); break;
+                        case "senders": opts.senders = Integer.valueOf(value); break;
+                        case "consumers": opts.consumers = Integer.valueOf(value); break;
+                        case "xunit": opts.xunit = Double.valueOf(value); break;
+                        case "transport": opts.transport = value; break;
+                        case "pooled": opts.pooled = Boolean.valueOf(value); break;
+                        case "streaming": opts.streaming = Boolean.valueOf(value); break;
+                        case "samples": opts.samples = Integer.valueOf(value); break;
+                        default: throw new InvalidConfigError(String.format("Unknown option --%s", name));
+                    }
+                } catch (NumberFormatException e) {
+                    throw new InvalidConfigError(String.format("--%s needs a number, got %s", name, value));
+                }
+            }
+            opts.validate();
+            return opts;
+        }
+
+        void validate() {
+            if (this.rate < 1 || this.duration < 1 || this.warmup < 0 || this.senders < 1 || this.consumers < 1
+                    || this.samples < 1)
+                throw new InvalidConfigError("rate, duration, senders, consumers and samples must be positive");
+            if (this.xunit < 0.0 || this.xunit > 1.0)
+                throw new InvalidConfigError("xunit must be between 0 and 1");
+            if (!this.transport.equals("tcp") && !this.transport.equals("vm"))
+                throw new InvalidConfigError("transport must be tcp or vm");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("rate=%d/s duration=%ds warmup=%ds senders=%d consumers=%d xunit=%.2f transport=%s "
+                            + "pooled=%s streaming=%s samples=%d", this.rate, this.duration, this.warmup, this.senders,
+                    this.consumers, this.xunit, this.transport, this.pooled, this.streaming, this.samples);
+        }
+    }
+
+    private final Options opts;
+    private final SyntheticMessages messages;
+    // Latencies in microseconds, from when a message was due, and from when it was actually sent
+    private final LatencyHistogram corrected = new LatencyHistogram();
+    private final LatencyHistogram uncorrected = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    public LoadGenerator(Options opts) {
+        this.opts = opts;
+        this.messages = new SyntheticMessages(opts.samples, opts.xunit, 42L);
+    }
+
+    /**
+     * Wraps the listener's own MessageListener so the latency is taken once the message has been parsed and handled
+     */
+    private MessageListener timed(MessageListener handling) {
+        return msg -> {
+            handling.onMessage(msg);
+            long now = System.nanoTime();
+            this.handled.increment();
+            try {
+                long due = Long.parseLong(msg.getStringProperty(DUE));
+                long sentAt = Long.parseLong(msg.getStringProperty(SENT));
+                if (due >= this.measureFrom) {
+                    this.corrected.record((now - due) / 1000);
+                    this.uncorrected.record((now - sentAt) / 1000);
+                }
+            } catch (JMSException | NumberFormatException e) {
+                logger.warn(String.format("Message without load generator times: %s", e.getMessage()));
+            }
+        };
+    }
+
+    /**
+     * Sends every senders-th message, starting with the first-th, each one at the time it is due
+     */
+    private void send(CIBusPublisher publisher, String url, int first, long start, long end, double interval) {
+        for (long i = first; ; i += this.opts.senders) {
+            long due = start + (long) (i * interval);
+            if (due >= end)
+                return;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+
+            SyntheticMessages.Sample sample = this.messages.get(i);
+            Map<String, String> times = new HashMap<>();
+            times.put(DUE, Long.toString(due));
+            times.put(SENT, Long.toString(System.nanoTime()));
+            JMSMessageOptions mopts = SyntheticMessages.options(sample, times);
+            if (this.opts.pooled) {
+                MessageResult<String> result = publisher.publish(sample.body, mopts);
+                if (result.getStatus() == MessageResult.Status.SUCCESS)
+                    this.sent.increment();
+                else
+                    this.failed.increment();
+            }
+            else {
+                Optional<Connection> conn = publisher.sendMessage(sample.body, url, mopts);
+                this.sent.increment();
+                conn.ifPresent(c -> {
+                    try {
+                        c.close();
+                    } catch (JMSException e) {
+                        logger.warn(e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    public void run() throws Exception {
+        BrokerService service = new BrokerService();
+        service.setBrokerName(BROKER);
+        service.setPersistent(false);
+        service.setUseJmx(false);
+        service.setUseShutdownHook(false);
+        TransportConnector tcp = service.addConnector("tcp://localhost:0");
+        service.start();
+        service.waitUntilStarted();
+
+        String url = this.opts.transport.equals("vm")
+                ? String.format("vm://%s?create=false", BROKER)
+                : tcp.getConnectUri().toString();
+        BrokerConfig cfg = new BrokerConfig("ci", url, "", "", 60000L, 1);
+
+        CIBusListener<DefaultResult> listener = new CIBusListener<>(IMessageListener.defaultHandler(), cfg);
+        listener.addRoute("rhsm_qe", SyntheticMessages.XUNIT, CIBusListener.xunitMsgHandler());
+        listener.addRoute("rhsm_qe", SyntheticMessages.TESTCASE, IMessageListener.defaultHandler());
+        listener.setConcurrency(this.opts.consumers);
+        listener.setStreaming(this.opts.streaming);
+        Connection listening = listener
+                .tapIntoMessageBus("", this.timed(listener.createListener(listener.messageParser())), CONSUMER_QUEUE)
+                .orElseThrow(() -> new IllegalStateException("Could not connect the listener"));
+
+        CIBusPublisher publisher = new CIBusPublisher(cfg);
+        publisher.setPoolSettings(new PoolSettings(this.opts.senders, 60000L, 30000L));
+        publisher.setPooled(this.opts.pooled);
+
+        logger.info(String.format("Sending %d distinct messages, %.0f characters on average, with %s",
+                this.messages.size(), this.messages.meanSize(), this.opts));
+        double interval = TimeUnit.SECONDS.toNanos(1) / (double) this.opts.rate;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measured = start + TimeUnit.SECONDS.toNanos(this.opts.warmup);
+        long end = measured + TimeUnit.SECONDS.toNanos(this.opts.duration);
+        this.measureFrom = measured;
+
+        List<Thread> senders = new ArrayList<>();
+        for (int k = 0; k < this.opts.senders; k++) {
+            int first = k;
+            Thread t = new Thread(() -> this.send(publisher, url, first, start, end, interval), "loadgen-sender-" + k);
+            t.start();
+            senders.add(t);
+        }
+        for (Thread t : senders)
+            t.join();
+
+        // Give the listener time to work through whatever is still queued
+        long total = this.sent.sum();
+        long drainBy = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (this.handled.sum() < total && System.nanoTime() < drainBy)
+            Thread.sleep(50);
+        long handleDone = System.nanoTime();
+
+        publisher.close();
+        listening.close();
+        service.stop();
+        service.waitUntilStopped();
+
+        this.report(total, measured, end, handleDone);
+    }
+
+    private void report(long total, long measured, long end, long handleDone) {
+        double secs = (handleDone - measured) / 1e9;
+        long count = this.corrected.getCount();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%nOffered %d/s for %ds: sent %d, failed %d, handled %d%n",
+                this.opts.rate, this.opts.duration, total, this.failed.sum(), this.handled.sum()));
+        sb.append(String.format("Measured %d messages, %.1f/s handled (the listener finished %.1fs after the last " +
+                "was due)%n", count, count / Math.max(secs, 1e-9), (handleDone - end) / 1e9));
+        sb.append(String.format("%-38s %10s %10s %10s %10s %10s%n", "publish-to-handle latency (ms)",
+                "p50", "p99", "p999", "max", "mean"));
+        sb.append(line("corrected (from when it was due)", this.corrected));
+        sb.append(line("uncorrected (from when it was sent)", this.uncorrected));
+        sb.append(line("publish call (with warmup)", Metrics.PUBLISH));
+        sb.append(line("parse (with warmup)", Metrics.PARSE));
+        sb.append(line("handler (with warmup)", Metrics.HANDLER));
+        if (total > this.handled.sum())
+            sb.append(String.format("WARNING: %d messages were never handled%n", total - this.handled.sum()));
+        System.out.println(sb);
+    }
+
+    private static String line(String name, LatencyHistogram h) {
+        return String.format("%-38s %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                h.getValueAtPercentile(50.0) / 1000.0, h.getValueAtPercentile(99.0) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0, h.getMean() / 1000.0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(Options.parse(args)).run();
+    }
+}
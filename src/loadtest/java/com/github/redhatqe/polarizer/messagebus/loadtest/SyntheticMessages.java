@@ -0,0 +1,138 @@
+package com.github.redhatqe.polarizer.messagebus.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.JMSMessageOptions;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A fixed pool of XUnit and TestCase importer replies, with the sizes and properties real ones have
+ *
+ * Most replies are small, but a few cover hundreds or thousands of suites or testcases, so the pool has a long tail
+ * of big bodies.  Every message gets rhsm_qe, job-id and type, plus up to 6 more properties.  The pool is built up
+ * front from a fixed seed, so that building messages costs nothing during the run and two runs send the same mix.
+ */
+public class SyntheticMessages {
+    public static final String XUNIT = "xunit_importer";
+    public static final String TESTCASE = "testcase_importer";
+
+    public static class Sample {
+        public final String kind;
+        public final String body;
+        public final Map<String, String> props;
+
+        Sample(String kind, String body, Map<String, String> props) {
+            this.kind = kind;
+            this.body = body;
+            this.props = props;
+        }
+    }
+
+    private final List<Sample> samples;
+
+    /**
+     * @param size number of distinct messages in the pool
+     * @param xunitRatio fraction of them that are XUnit replies, the rest are TestCase replies
+     * @param seed seed of the random sizes and properties
+     */
+    public SyntheticMessages(int size, double xunitRatio, long seed) {
+        Random rand = new Random(seed);
+        this.samples = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            boolean xunit = rand.nextDouble() < xunitRatio;
+            int count = entries(rand);
+            boolean passed = rand.nextDouble() < 0.8;
+            String body = xunit ? xunitReply(count, passed, rand) : testcaseReply(count, passed, rand);
+            Map<String, String> props = new HashMap<>();
+            props.put("rhsm_qe", xunit ? XUNIT : TESTCASE);
+            props.put("job-id", Integer.toString(1000 + rand.nextInt(9000)));
+            props.put("type", xunit ? "xunit" : "testcase");
+            for (int p = rand.nextInt(7); p > 0; p--)
+                props.put("x-prop" + p, Long.toHexString(rand.nextLong()));
+            this.samples.add(new Sample(xunit ? XUNIT : TESTCASE, body, props));
+        }
+    }
+
+    /**
+     * 70% of replies have 1-20 entries, 25% have 20-200 and 5% have 200-2000
+     */
+    private static int entries(Random rand) {
+        double r = rand.nextDouble();
+        if (r < 0.70)
+            return 1 + rand.nextInt(20);
+        if (r < 0.95)
+            return 20 + rand.nextInt(180);
+        return 200 + rand.nextInt(1800);
+    }
+
+    static String xunitReply(int suites, boolean passed, Random rand) {
+        ObjectNode root = Json.NODES.objectNode();
+        root.put("status", passed ? "passed" : "failed");
+        root.put("testrun-url", "https://polarion.example.com/polarion/#/project/RHEL6/testrun?id=run_"
+                + rand.nextInt(100000));
+        root.put("log-url", "https://polarion.example.com/import/xunit-log?jobId=" + rand.nextInt(100000));
+        ArrayNode results = root.putArray("import-results");
+        for (int i = 0; i < suites; i++) {
+            ObjectNode suite = results.addObject();
+            suite.put("suite-name", "suite-" + i);
+            suite.put("status", passed || rand.nextInt(10) != 0 ? "passed" : "failed");
+            suite.put("testcases", 1 + rand.nextInt(50));
+        }
+        if (!passed && suites == 0)
+            root.put("message", "Import failed");
+        return write(root);
+    }
+
+    static String testcaseReply(int testcases, boolean passed, Random rand) {
+        ObjectNode root = Json.NODES.objectNode();
+        root.put("status", passed ? "passed" : "failed");
+        root.put("log-url", "https://polarion.example.com/import/testcase-log?jobId=" + rand.nextInt(100000));
+        ArrayNode results = root.putArray("import-testcases");
+        for (int i = 0; i < testcases; i++) {
+            ObjectNode tc = results.addObject();
+            tc.put("id", "RHEL6-" + (10000 + rand.nextInt(90000)));
+            tc.put("name", "com.github.redhatqe.tests.Suite" + (i % 40) + ".test" + i);
+            tc.put("status", passed || rand.nextInt(10) != 0 ? "passed" : "failed");
+        }
+        return write(root);
+    }
+
+    private static String write(ObjectNode root) {
+        try {
+            return Json.WRITER.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Sample get(long seq) {
+        return this.samples.get((int) (seq % this.samples.size()));
+    }
+
+    /**
+     * @return options for sending the sample, with its properties and the given extra ones
+     */
+    public static JMSMessageOptions options(Sample sample, Map<String, String> extra) {
+        Map<String, String> props = new HashMap<>(sample.props);
+        props.putAll(extra);
+        return new JMSMessageOptions(sample.kind, props);
+    }
+
+    public int size() {
+        return this.samples.size();
+    }
+
+    /**
+     * @return mean body length in characters
+     */
+    public double meanSize() {
+        return this.samples.stream().mapToInt(s -> s.body.length()).average().orElse(0.0);
+    }
+}
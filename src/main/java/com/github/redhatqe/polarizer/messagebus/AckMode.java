@@ -0,0 +1,25 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import org.apache.activemq.ActiveMQSession;
+
+import javax.jms.Session;
+
+/**
+ * How a CIBusListener acknowledges the messages it consumes
+ */
+public enum AckMode {
+    AUTO(Session.AUTO_ACKNOWLEDGE),                    // Each message is acked when delivered, even if handling fails
+    CLIENT(Session.CLIENT_ACKNOWLEDGE),                // One ack covers every message delivered on the session so far
+    DUPS_OK(Session.DUPS_OK_ACKNOWLEDGE),              // Acked lazily in batches, so duplicates are possible
+    INDIVIDUAL(ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE); // Each message is acked on its own
+
+    private final int sessionMode;
+
+    AckMode(int sessionMode) {
+        this.sessionMode = sessionMode;
+    }
+
+    public int getSessionMode() {
+        return this.sessionMode;
+    }
+}
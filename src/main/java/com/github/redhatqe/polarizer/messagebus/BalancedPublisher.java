@@ -0,0 +1,239 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads publishes over several of the brokers in a BrokerConfig, so that one broker url is not the limit on how fast
+ * messages can be sent.
+ *
+ * Each broker is tracked for the number of publishes in flight, a moving average of its publish latency and its recent
+ * failures.  A broker that fails FAILURE_THRESHOLD times in a row is skipped for OPEN_MILLIS, and a broker whose
+ * average latency is more than SLOW_FACTOR times that of the fastest one is skipped while others are available, as is
+ * a broker with messages waiting in the publisher's outbox.  A publish that fails on one broker is tried once more on
+ * another, and only goes to the outbox if that fails too.
+ *
+ * Usage:
+ * <pre>
+ *     CIBusPublisher pub = new CIBusPublisher();
+ *     BalancedPublisher bp = new BalancedPublisher(pub, BalancedPublisher.Strategy.LEAST_OUTSTANDING);
+ *     bp.publishAsync(body, opts).thenAccept(r -> ...);
+ * </pre>
+ */
+public class BalancedPublisher implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(BalancedPublisher.class.getName());
+    public static final Integer FAILURE_THRESHOLD = 3;
+    public static final Long OPEN_MILLIS = 5000L;
+    public static final Double SLOW_FACTOR = 4.0;
+    // Weight of the newest sample in the latency moving average
+    private static final Double ALPHA = 0.2;
+
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING,
+        WEIGHTED
+    }
+
+    private final CIBusPublisher publisher;
+    private final Strategy strategy;
+    private final List<Target> targets;
+    private final AtomicLong next = new AtomicLong();
+
+    static class Target {
+        final String name;
+        final Broker broker;
+        final Integer weight;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        // Moving average of the publish latency in microseconds, or -1 until the first sample
+        volatile double latency = -1;
+        volatile long openUntil = 0;
+
+        Target(String name, Broker broker) {
+            this.name = name;
+            this.broker = broker;
+            this.weight = (broker.getWeight() == null || broker.getWeight() < 1) ? 1 : broker.getWeight();
+        }
+
+        boolean isOpen(long now) {
+            return now < this.openUntil;
+        }
+
+        synchronized void record(long micros, boolean ok) {
+            this.latency = (this.latency < 0) ? micros : ALPHA * micros + (1 - ALPHA) * this.latency;
+            if (ok)
+                this.failures.set(0);
+            else if (this.failures.incrementAndGet() >= FAILURE_THRESHOLD) {
+                this.openUntil = System.currentTimeMillis() + OPEN_MILLIS;
+                this.failures.set(0);
+                logger.warn(String.format("Broker %s failed %d times in a row, skipping it for %dms",
+                        this.name, FAILURE_THRESHOLD, OPEN_MILLIS));
+            }
+        }
+    }
+
+    /**
+     * Balances over every broker in the publisher's BrokerConfig
+     */
+    public BalancedPublisher(CIBusPublisher publisher, Strategy strategy) {
+        this(publisher, strategy, new ArrayList<>(publisher.getBrokerConfig().getBrokers().keySet()));
+    }
+
+    /**
+     * @param publisher publisher whose pools and executor are used for the sends
+     * @param strategy how to pick the broker for each publish
+     * @param names names of the brokers in the publisher's BrokerConfig to balance over
+     */
+    public BalancedPublisher(CIBusPublisher publisher, Strategy strategy, List<String> names) {
+        this.publisher = publisher;
+        this.strategy = strategy;
+        BrokerConfig cfg = publisher.getBrokerConfig();
+        List<Target> ts = new ArrayList<>();
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        for (String name : sorted) {
+            Broker b = cfg.getBrokers().get(name);
+            if (b == null)
+                throw new IllegalArgumentException(String.format("No broker named %s in the configuration", name));
+            ts.add(new Target(name, b));
+        }
+        if (ts.isEmpty())
+            throw new IllegalArgumentException("No brokers to balance over");
+        this.targets = Collections.unmodifiableList(ts);
+    }
+
+    /**
+     * Publishes a message to one of the brokers, retrying once on another broker if it fails
+     *
+     * @param text body of the TextMessage
+     * @param opts options for the message
+     * @return a future that completes with the MessageResult of the last attempt.  It is never completed exceptionally.
+     */
+    public CompletableFuture<MessageResult<String>> publishAsync(String text, JMSMessageOptions opts) {
+        Target first = this.choose(null);
+        boolean retry = this.targets.size() > 1;
+        // Keep the first attempt out of the outbox, so a failure is retried on another broker rather than stored
+        return this.send(first, text, opts, !retry).thenCompose(r -> {
+            // PENDING means the publisher's outbox took it, so it will be sent later and must not be sent twice
+            MessageResult.Status status = r.getStatus();
+            boolean done = status == MessageResult.Status.SUCCESS || status == MessageResult.Status.PENDING;
+            if (done || !retry)
+                return CompletableFuture.completedFuture(r);
+            Target second = this.choose(first);
+            logger.info(String.format("Publish to %s failed, retrying on %s", first.name, second.name));
+            return this.send(second, text, opts, true);
+        });
+    }
+
+    public MessageResult<String> publish(String text, JMSMessageOptions opts) {
+        return this.publishAsync(text, opts).join();
+    }
+
+    private CompletableFuture<MessageResult<String>>
+    send(Target t, String text, JMSMessageOptions opts, boolean useOutbox) {
+        t.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        return this.publisher.publishAsync(text, t.broker.getUrl(), t.broker, opts, useOutbox).thenApply(r -> {
+            t.outstanding.decrementAndGet();
+            // A full executor queue says nothing about the broker, so only count real send results
+            if (r.getStatus() != MessageResult.Status.SEND_FAIL)
+                t.record((System.nanoTime() - start) / 1000, r.getStatus() == MessageResult.Status.SUCCESS);
+            return r;
+        });
+    }
+
+    /**
+     * Picks the broker for the next publish from the ones that are neither failing nor slow.  If every broker is
+     * failing, they are all tried anyway rather than refusing to publish.
+     *
+     * @param exclude a broker to avoid if there is any other, or null
+     */
+    Target choose(Target exclude) {
+        long now = System.currentTimeMillis();
+        List<Target> healthy = new ArrayList<>(this.targets.size());
+        double fastest = Double.MAX_VALUE;
+        for (Target t : this.targets) {
+            if (t == exclude || t.isOpen(now) || this.publisher.behindOutbox(t.broker.getUrl()))
+                continue;
+            healthy.add(t);
+            if (t.latency >= 0 && t.latency < fastest)
+                fastest = t.latency;
+        }
+        if (healthy.isEmpty()) {
+            healthy.addAll(this.targets);
+            if (exclude != null && healthy.size() > 1)
+                healthy.remove(exclude);
+        }
+
+        List<Target> candidates = healthy;
+        if (healthy.size() > 1 && fastest != Double.MAX_VALUE) {
+            double limit = fastest * SLOW_FACTOR;
+            candidates = new ArrayList<>(healthy.size());
+            for (Target t : healthy)
+                if (t.latency < limit)
+                    candidates.add(t);
+        }
+
+        long n = this.next.getAndIncrement() & Long.MAX_VALUE;
+        switch (this.strategy) {
+            case LEAST_OUTSTANDING:
+                Target best = candidates.get((int) (n % candidates.size()));
+                for (Target t : candidates)
+                    if (t.outstanding.get() < best.outstanding.get())
+                        best = t;
+                return best;
+            case WEIGHTED:
+                long total = 0;
+                for (Target t : candidates)
+                    total += t.weight;
+                long slot = n % total;
+                for (Target t : candidates) {
+                    slot -= t.weight;
+                    if (slot < 0)
+                        return t;
+                }
+                return candidates.get(candidates.size() - 1);
+            default:
+                return candidates.get((int) (n % candidates.size()));
+        }
+    }
+
+    public Integer getOutstanding(String name) {
+        return this.find(name).outstanding.get();
+    }
+
+    /**
+     * @return the moving average of the publish latency to the broker in microseconds, or -1 if nothing was sent yet
+     */
+    public Double getLatencyMicros(String name) {
+        return this.find(name).latency;
+    }
+
+    public Boolean isHealthy(String name) {
+        return !this.find(name).isOpen(System.currentTimeMillis());
+    }
+
+    private Target find(String name) {
+        for (Target t : this.targets)
+            if (t.name.equals(name))
+                return t;
+        throw new IllegalArgumentException(String.format("No broker named %s", name));
+    }
+
+    /**
+     * Closes the underlying publisher and its pools
+     */
+    @Override
+    public void close() {
+        this.publisher.close();
+    }
+}
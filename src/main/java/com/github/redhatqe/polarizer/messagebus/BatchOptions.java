@@ -0,0 +1,61 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+/**
+ * Settings for CIBusPublisher.sendBatch
+ */
+public class BatchOptions {
+    Integer batchSize = 100;
+    Long commitInterval = 1000L;
+    Boolean transacted = true;
+    Boolean asyncSend = false;
+    Boolean stopOnFailure = false;
+
+    public BatchOptions() {
+
+    }
+
+    public BatchOptions(BatchOptions other) {
+        this.batchSize = other.batchSize;
+        this.commitInterval = other.commitInterval;
+        this.transacted = other.transacted;
+        this.asyncSend = other.asyncSend;
+        this.stopOnFailure = other.stopOnFailure;
+    }
+
+    /**
+     * @param batchSize commit after this many messages
+     * @param commitInterval commit once this many milliseconds have passed since the last commit
+     */
+    public BatchOptions(Integer batchSize, Long commitInterval) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * If false, messages are sent on a non-transacted session and batchSize and commitInterval are ignored
+     */
+    public BatchOptions setTransacted(Boolean transacted) {
+        this.transacted = transacted;
+        return this;
+    }
+
+    /**
+     * If true, sends do not wait for the broker's receipt.  Only matters when not transacted, since ActiveMQ already
+     * sends transacted messages asynchronously and only waits on the commit.
+     */
+    public BatchOptions setAsyncSend(Boolean asyncSend) {
+        this.asyncSend = asyncSend;
+        return this;
+    }
+
+    /**
+     * If true, nothing after the first failed send or commit is sent, so the messages the broker accepted are always
+     * the leading ones, in order.  The rest get a JMS_EXCEPTION result.
+     */
+    public BatchOptions setStopOnFailure(Boolean stopOnFailure) {
+        this.stopOnFailure = stopOnFailure;
+        return this;
+    }
+}
@@ -23,4 +23,18 @@ public abstract class CIBusClient {
     public static final String POLARIZE_CLIENT_ID = "client-polarize";
     public static final String TOPIC = "VirtualTopic.qe.ci.>";
 
+    public BrokerConfig getBrokerConfig() {
+        return this.brokerConfig;
+    }
+
+    /**
+     * @return the url to connect to: a failover: url if failover is enabled in the BrokerConfig, otherwise the url of
+     *         the broker
+     */
+    public String getBrokerUrl() {
+        if (this.brokerConfig != null && this.brokerConfig.getFailover().getEnabled())
+            return this.brokerConfig.getConnectUrl();
+        return this.broker.getUrl();
+    }
+
 }
@@ -3,22 +3,30 @@ package com.github.redhatqe.polarizer.messagebus;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.redhatqe.polarizer.messagebus.config.Broker;
 import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.messagebus.exceptions.InvalidConfigError;
 import com.github.redhatqe.polarizer.messagebus.exceptions.NoConfigFoundError;
+import com.github.redhatqe.polarizer.messagebus.metrics.Metrics;
+import com.github.redhatqe.polarizer.messagebus.utils.BoundedRing;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import com.github.redhatqe.polarizer.messagebus.utils.MapMessageConverter;
+import com.github.redhatqe.polarizer.messagebus.utils.PayloadLog;
+import com.github.redhatqe.polarizer.messagebus.utils.Timers;
 import com.github.redhatqe.polarizer.messagebus.utils.Tuple;
 import com.github.redhatqe.polarizer.reporter.configuration.Serializer;
 import com.github.redhatqe.polarizer.reporter.utils.JsonHelper;
+import io.reactivex.Flowable;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
-import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 import io.reactivex.subjects.Subject;
+import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
-import org.apache.commons.collections4.queue.CircularFifoQueue;
-
+import org.apache.activemq.command.ActiveMQQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,7 +36,15 @@ import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Class that provides functionality to listen to the CI Message Bus
@@ -38,9 +54,35 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
     private String topic;
     private Subject<ObjectNode> nodeSub;
     private Subject<MessageResult<T>> resultSubject;
-    private Integer messageCount = 0;
-    public CircularFifoQueue<MessageResult<T>> messages;
+    private MessageHandler<T> handler;
+    private final MessageRouter<T> router = new MessageRouter<>();
+    private volatile PathExtractor extractor = null;
+    private volatile long extractorVersion = -1;
+    private TypedBinding<?, T> binding = null;
+    private Boolean streaming = false;
+    private Integer concurrency = 1;
+    private Boolean groupOrdering = false;
+    private WorkerStage stage = null;
+    private Integer flowablePrefetch = 10;
+    private AckMode ackMode = AckMode.AUTO;
+    private Integer ackBatchSize = 100;
+    private Long ackWindow = 1000L;
+    private String durableName = null;
+    private PayloadLog payloadLog = new PayloadLog();
+    private Long backlogWindow = DEFAULT_BACKLOG_WINDOW;
+    private final AtomicInteger flowableCount = new AtomicInteger(0);
+    private final Object[] groupLocks = new Object[GROUP_STRIPES];
+    private final AtomicInteger messageCount = new AtomicInteger(0);
+    private final ConcurrentLinkedQueue<CountWaiter> waiters = new ConcurrentLinkedQueue<>();
+    // The SessionAckers of each Connection opened by tapIntoMessageBus, flushed by disconnect
+    private final Map<Connection, List<SessionAcker>> ackers = new ConcurrentHashMap<>();
+    public volatile BoundedRing<MessageResult<T>> messages;
     private static final Integer SUBJECT_COMPLETED = -1;
+    private static final Integer GROUP_STRIPES = 64;
+    private static final Long FLOWABLE_POLL = 500L;
+    public static final Long DEFAULT_BACKLOG_WINDOW = 3600000L;
+    private static final Metrics.EnumCounters<MessageResult.Status> statusCounts =
+            new Metrics.EnumCounters<>(Metrics.REGISTRY, "listener.status", MessageResult.Status.class);
     private Connection connection = null;
 
 
@@ -62,9 +104,12 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
                 .getConfigFromPath(BrokerConfig.class, this.configPath)
                 .orElseThrow(() -> new NoConfigFoundError(String.format("Could not find configuration file at %s", this.configPath)));
         this.broker = this.brokerConfig.getBrokers().get(this.brokerConfig.getDefaultBroker());
-        this.messages = new CircularFifoQueue<>(20);
+        this.messages = new BoundedRing<>(20);
+        this.handler = hdlr;
         this.resultSubject = this.setupResultSubject();
-        this.nodeSub = this.setupDefaultSubject(hdlr);
+        this.nodeSub = this.setupDefaultSubject();
+        for (int i = 0; i < GROUP_STRIPES; i++)
+            this.groupLocks[i] = new Object();
     }
 
     public CIBusListener(MessageHandler<T> hdlr, BrokerConfig cfg) {
@@ -78,9 +123,12 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
         else
             throw new NoConfigFoundError("BrokerConfig can't be null");
         this.broker = this.brokerConfig.getBrokers().get(this.brokerConfig.getDefaultBroker());
-        this.messages = new CircularFifoQueue<>(20);
+        this.messages = new BoundedRing<>(20);
+        this.handler = hdlr;
         this.resultSubject = this.setupResultSubject();
-        this.nodeSub = this.setupDefaultSubject(hdlr);
+        this.nodeSub = this.setupDefaultSubject();
+        for (int i = 0; i < GROUP_STRIPES; i++)
+            this.groupLocks[i] = new Object();
     }
 
     public Subject<ObjectNode> getNodeSub() {
@@ -92,63 +140,462 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
     }
 
     public Integer getMessageCount() {
-        return messageCount;
+        return messageCount.get();
+    }
+
+    /**
+     * @return true once listenUntil has stopped listening, after which received messages are no longer handled
+     */
+    public boolean isCompleted() {
+        return this.messageCount.get() == SUBJECT_COMPLETED;
     }
 
+    /**
+     * Resets the message count and resizes the ring of recent results, keeping the newest ones
+     *
+     * @param messageCount new count, which is also the capacity of the new ring
+     */
     public void setMessages(Integer messageCount) {
-        this.messageCount = messageCount;
-        CircularFifoQueue<MessageResult<T>> fifo = new CircularFifoQueue<>(messageCount);
-        fifo.addAll(this.messages);
-        this.messages = fifo;
+        this.messageCount.set(messageCount);
+        BoundedRing<MessageResult<T>> ring = new BoundedRing<>(messageCount);
+        ring.addAll(this.messages.snapshot());
+        this.messages = ring;
     }
 
     public String getClientID() { return this.clientID; }
 
+    public String getDurableName() {
+        return durableName;
+    }
+
+    /**
+     * Turns on durable mode, so that messages published while this listener is not attached are kept for it
+     *
+     * The clientID becomes client-polarize.name instead of a random one, so the Consumer.clientID virtual topic queue
+     * used with tapIntoMessageBus keeps the same name from run to run, and waitForMessage uses a durable subscription
+     * called name.  The broker only keeps messages once the queue or subscription exists, so call
+     * {@link #register(String, String)} once (eg when a pipeline is set up) before anything is published.  Only one
+     * listener with a given name can be connected at a time.  Must be called before connecting.
+     *
+     * @param name stable name for this listener
+     */
+    public void setDurable(String name) {
+        this.durableName = name;
+        this.clientID = POLARIZE_CLIENT_ID + "." + name;
+    }
+
+    public Long getBacklogWindow() {
+        return backlogWindow;
+    }
+
+    /**
+     * In durable mode, messages older than this (by their JMSTimestamp) are acked and skipped rather than handled, so
+     * a listener that was away for a long time does not replay an unbounded backlog.
+     *
+     * @param backlogWindow oldest message in milliseconds to still handle, or 0 to handle everything
+     */
+    public void setBacklogWindow(Long backlogWindow) {
+        this.backlogWindow = backlogWindow;
+    }
+
+    /**
+     * @return the Consumer.clientID.VirtualTopic queue this listener reads from with tapIntoMessageBus
+     */
+    public String getConsumerQueue() {
+        return this.getConsumerQueue(TOPIC);
+    }
+
+    /**
+     * @param topic virtual topic, eg VirtualTopic.qe.ci.jenkins
+     * @return the Consumer.clientID queue of this listener for the topic
+     */
+    public String getConsumerQueue(String topic) {
+        return String.format("Consumer.%s.%s", this.clientID, topic);
+    }
+
+    /**
+     * Deletes a virtual topic queue, along with any messages still on it.  In durable mode the queue outlives the
+     * listener, so this is how a listener that is no longer needed is cleaned up.  The broker only deletes a queue
+     * nobody consumes from, so disconnect first.
+     *
+     * @param address the queue to delete.  Wildcards are not expanded, so give a queue from
+     *                {@link #getConsumerQueue(String)} rather than the wildcard one from {@link #getConsumerQueue()}.
+     */
+    public void deleteQueue(String address) throws JMSException {
+        Connection conn = this.setupFactory(this.getBrokerUrl(), this.broker).createConnection();
+        try {
+            if (!(conn instanceof ActiveMQConnection))
+                throw new JMSException("Deleting a queue needs an ActiveMQ connection");
+            ((ActiveMQConnection) conn).destroyDestination(new ActiveMQQueue(address));
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * In durable mode, creates the durable subscription (if address is null) or the virtual topic queue (otherwise)
+     * without consuming from it, so that the broker keeps messages for this listener from now on
+     *
+     * @param selector JMS selector of the subscription.  Changing the selector of a durable subscription drops it
+     *                 along with its messages, so use the same one as waitForMessage will.
+     * @param address queue used with tapIntoMessageBus, or null for the topic used with waitForMessage
+     */
+    public void register(String selector, String address) throws JMSException {
+        if (this.durableName == null)
+            throw new javax.jms.IllegalStateException("register needs durable mode, call setDurable first");
+        Connection conn = this.setupFactory(this.getBrokerUrl(), this.broker).createConnection();
+        try {
+            conn.setClientID(this.clientID);
+            Session session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            if (address == null)
+                session.createDurableSubscriber(session.createTopic(this.topic), this.durableName, selector, false);
+            else if (selector.equals(""))
+                session.createConsumer(session.createQueue(address));
+            else
+                session.createConsumer(session.createQueue(address), selector);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Removes the durable subscription used by waitForMessage, so the broker stops keeping messages for it
+     */
+    public void unsubscribe() throws JMSException {
+        if (this.durableName == null)
+            return;
+        Connection conn = this.setupFactory(this.getBrokerUrl(), this.broker).createConnection();
+        try {
+            conn.setClientID(this.clientID);
+            conn.createSession(false, Session.AUTO_ACKNOWLEDGE).unsubscribe(this.durableName);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * @return true if the message is from a durable backlog and older than the backlog window
+     */
+    private boolean isStale(Message msg) {
+        if (this.durableName == null || this.backlogWindow <= 0)
+            return false;
+        try {
+            long ts = msg.getJMSTimestamp();
+            return ts > 0 && System.currentTimeMillis() - ts > this.backlogWindow;
+        } catch (JMSException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Binds a JSON body straight to a class and hands it to a TypedMessageHandler
+     */
+    private static class TypedBinding<P, T> {
+        final ObjectReader reader;
+        final TypedMessageHandler<P, T> handler;
+
+        TypedBinding(Class<P> type, TypedMessageHandler<P, T> handler) {
+            this.reader = Json.readerFor(type);
+            this.handler = handler;
+        }
+
+        MessageResult<T> handle(String text) {
+            P payload;
+            try {
+                payload = this.reader.readValue(text);
+            } catch (IOException e) {
+                MessageResult<T> result = new MessageResult<>();
+                result.setStatus(MessageResult.Status.WRONG_MESSAGE_FORMAT);
+                result.setErrorDetails(e.getMessage());
+                return result;
+            }
+            return this.handler.handle(payload, text);
+        }
+    }
+
+    /**
+     * Switches TextMessages to typed handling.  The body is bound straight to the given class with Jackson databind,
+     * and no ObjectNode is built, so nothing is passed to the node Subject for them.  Results still go to the result
+     * Subject, and are counted.  MapMessages are still handled by the MessageHandler.  A body that can't be bound
+     * gives a WRONG_MESSAGE_FORMAT result.
+     *
+     * @param type the class to bind the body to
+     * @param typed the handler to give the bound body to, or null to go back to the MessageHandler
+     */
+    public <P> void setTypedHandler(Class<P> type, TypedMessageHandler<P, T> typed) {
+        this.binding = typed == null ? null : new TypedBinding<>(type, typed);
+    }
+
+    public Boolean getStreaming() {
+        return streaming;
+    }
+
+    /**
+     * In streaming mode, if the handler declares the paths it needs with {@link MessageHandler#requiredPaths()}, the
+     * body of a TextMessage is streamed and only those paths are put in the tree under "root".  The rest of the
+     * message is skipped without being materialized.  Handlers that declare no paths still get the whole tree.
+     *
+     * @param streaming whether to use streaming mode
+     */
+    public void setStreaming(Boolean streaming) {
+        this.streaming = streaming;
+        this.extractorVersion = -1;
+    }
+
+    /**
+     * @return the PathExtractor covering the paths of the handler and every routed handler, or null to parse the
+     *         whole message
+     */
+    private PathExtractor currentExtractor() {
+        if (!this.streaming)
+            return null;
+        long version = this.router.getVersion();
+        if (version != this.extractorVersion) {
+            Set<String> paths = new HashSet<>(this.handler.requiredPaths());
+            Set<String> routed = this.router.requiredPaths();
+            paths.addAll(routed);
+            boolean whole = this.handler.requiredPaths().isEmpty() || (!this.router.isEmpty() && routed.isEmpty());
+            this.extractor = whole ? null : new PathExtractor(paths);
+            this.extractorVersion = version;
+        }
+        return this.extractor;
+    }
+
+    public MessageRouter<T> getRouter() {
+        return router;
+    }
+
+    /**
+     * Sends messages whose property has the given value to handler, instead of the handler given to the constructor.
+     * Routing is done by the client, so one listener tapped in with an empty selector can serve many interests over a
+     * single connection.  A message matching several routes is handled by each of them, and each result is passed
+     * to the result Subject.  Messages matching no route go to the constructor's handler.  Routes may be added and
+     * removed while listening.  Typed handling (see setTypedHandler) is not routed.
+     *
+     * @param property name of the message property, eg rhsm_qe
+     * @param value value the property must have, eg xunit_importer
+     * @param handler handler for the matching messages
+     */
+    public void addRoute(String property, String value, MessageHandler<T> handler) {
+        this.router.addRoute(property, value, handler);
+    }
+
+    public boolean removeRoute(String property, String value, MessageHandler<T> handler) {
+        return this.router.removeRoute(property, value, handler);
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets how many Sessions and MessageConsumers tapIntoMessageBus opens on the queue.  Each Session gets its own
+     * dispatch thread, so with a concurrency of N up to N messages are parsed and handled at the same time.  The
+     * results from all of them are merged into the node and result Subjects.  Must be set before tapping in.
+     *
+     * With more than one consumer, consider a small prefetch, or the first consumer may be sent most of a burst.
+     *
+     * @param concurrency number of consumers to open
+     */
+    public void setConcurrency(Integer concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        this.concurrency = concurrency;
+    }
+
+    public WorkerStage getWorkerStage() {
+        return stage;
+    }
+
+    /**
+     * Moves parsing and handling off the JMS dispatch thread onto a WorkerStage, so that a slow MessageHandler no
+     * longer stops the broker from dispatching.  The dispatch thread only queues the message.  Must be set before
+     * tapping in.
+     *
+     * With the FAIL policy, a message arriving at a full stage is thrown back to the broker, which redelivers it.
+     * With group ordering on, messages with the same JMSXGroupID always go to the same worker.
+     *
+     * A WorkerStage can't be used with the CLIENT or DUPS_OK ack modes, see {@link #setAckMode(AckMode)}.
+     *
+     * @param workers number of worker threads
+     * @param capacity max number of messages waiting to be handled
+     * @param policy what to do when the stage is full
+     */
+    public void setWorkerStage(Integer workers, Integer capacity, WorkerStage.Policy policy) {
+        checkAckMode(this.ackMode, true);
+        if (this.stage != null)
+            this.stage.shutdown();
+        this.stage = new WorkerStage(this.clientID, workers, capacity, policy);
+    }
+
+    public Boolean getGroupOrdering() {
+        return groupOrdering;
+    }
+
+    /**
+     * When true, messages with the same JMSXGroupID are never handled at the same time, so with concurrency above 1
+     * they are handled in the order they were dispatched.  The broker already sends a whole group to one consumer,
+     * this also covers the case where a group is moved to another consumer while one of its messages is in flight.
+     *
+     * @param groupOrdering whether to serialize handling per message group
+     */
+    public void setGroupOrdering(Boolean groupOrdering) {
+        this.groupOrdering = groupOrdering;
+    }
+
+    public PayloadLog getPayloadLog() {
+        return payloadLog;
+    }
+
+    /**
+     * Sets how received payloads and results are logged.  By default every one is logged at DEBUG, cut to
+     * PayloadLog.DEFAULT_MAX_CHARS.
+     *
+     * @param payloadLog logging settings for payloads
+     */
+    public void setPayloadLog(PayloadLog payloadLog) {
+        this.payloadLog = payloadLog;
+    }
+
+    public AckMode getAckMode() {
+        return ackMode;
+    }
+
+    /**
+     * Sets how the sessions opened by tapIntoMessageBus and waitForMessage acknowledge messages.  Must be called before
+     * tapIntoMessageBus.
+     *
+     * With AUTO (the default), every message is acked as it is delivered, even if handling it fails.  With the other
+     * modes, a message is only acked once it has been handled, and if parsing or handling it throws, the session is
+     * recovered so the broker redelivers it.  CLIENT and INDIVIDUAL acks are batched, see
+     * {@link #setAckBatch(Integer, Long)}.  A handler returning a FAILED result counts as handled: only exceptions
+     * cause a redelivery.  Close the Connection with {@link #disconnect(Connection)}, so the handled messages are acked
+     * first.
+     *
+     * With a WorkerStage only AUTO and INDIVIDUAL can be used: a CLIENT ack also covers the messages still waiting on
+     * the stage, and DUPS_OK acks each message as soon as it is queued on the stage.  An InvalidConfigError is thrown
+     * for the other two.
+     *
+     * With waitForMessage, the caller must acknowledge the returned Message itself in any mode but AUTO and DUPS_OK.
+     *
+     * @param ackMode how to acknowledge messages
+     */
+    public void setAckMode(AckMode ackMode) {
+        checkAckMode(ackMode, this.stage != null);
+        this.ackMode = ackMode;
+    }
+
+    private static void checkAckMode(AckMode mode, boolean staged) {
+        if (staged && (mode == AckMode.CLIENT || mode == AckMode.DUPS_OK))
+            throw new InvalidConfigError(String.format("%s acks can't be used with a WorkerStage, use INDIVIDUAL",
+                    mode));
+    }
+
+    public Integer getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    public Long getAckWindow() {
+        return ackWindow;
+    }
+
     /**
-     * Creates a Subject with a default set of onNext, onError, and onComplete handlers
+     * Sets when handled messages are acked in CLIENT and INDIVIDUAL mode: after batchSize of them, or window ms after
+     * the last ack, whichever comes first.  In CLIENT mode the window is only checked as each message is done, since
+     * an ack sent while a handler runs would ack its message too.
+     *
+     * @param batchSize most handled messages to hold before acking them
+     * @param window most milliseconds to hold handled messages before acking them, or 0 to only ack by count
+     */
+    public void setAckBatch(Integer batchSize, Long window) {
+        this.ackBatchSize = batchSize;
+        this.ackWindow = window;
+    }
+
+    /**
+     * Creates the Subject that every parsed message is passed along to, with a default onError and onComplete handler
      *
-     * @param handler A MessageHandler that will be applied by the subscriber
      * @return A Subject which will pass the Object node along
      */
-    private Subject<ObjectNode> setupDefaultSubject(MessageHandler<T> handler) {
-        // handler for onNext
-        Consumer<ObjectNode> next = (ObjectNode node) -> {
-            MessageResult<T> result = handler.handle(node);
-            logger.info("Got a message");
-            // FIXME: I dont like storing state like this, but onNext doesn't return anything
-            this.messageCount++;
-            this.messages.add(result);
-            this.resultSubject.onNext(result);
-        };
+    private Subject<ObjectNode> setupDefaultSubject() {
         // handler for onComplete
         Action act = () -> {
             logger.info("Stop listening!");
-            this.messageCount = SUBJECT_COMPLETED;
+            this.messageCount.set(SUBJECT_COMPLETED);
+            if (this.stage != null)
+                this.stage.shutdown();
         };
         // FIXME: use DI to figure out what kind of Subject to create, ie AsyncSubject, BehaviorSubject, etc
-        Subject<ObjectNode> n = BehaviorSubject.create();
-        n.subscribe(next, Throwable::printStackTrace, act);
+        // Not a BehaviorSubject, since that holds on to the last node forever.  Serialized, since with
+        // concurrency > 1 several consumer threads call onNext
+        Subject<ObjectNode> n = PublishSubject.<ObjectNode>create().toSerialized();
+        n.subscribe(node -> {}, Throwable::printStackTrace, act);
         return n;
     }
 
+    /**
+     * Runs the handler on a parsed message and passes the node and result along to the Subjects
+     *
+     * This runs on the thread of whichever Session received the message, so with a concurrency above 1 it is called
+     * from several threads at once.
+     *
+     * @param msg the Message as received
+     * @param node the parsed Message
+     */
+    private void process(Message msg, ObjectNode node) throws JMSException {
+        String group = this.groupOrdering ? msg.getStringProperty("JMSXGroupID") : null;
+        if (group == null)
+            this.handle(msg, node);
+        else {
+            synchronized (this.groupLocks[(group.hashCode() & 0x7fffffff) % GROUP_STRIPES]) {
+                this.handle(msg, node);
+            }
+        }
+    }
+
+    /**
+     * @param msg the Message as received
+     * @param node the parsed Message, or null if it is to be handled by the typed handler
+     */
+    private void handle(Message msg, ObjectNode node) throws JMSException {
+        // listenUntil has completed nodeSub, so the listener is done and nothing more is handled
+        if (this.isCompleted()) {
+            logger.debug("Dropping a message that arrived after listening stopped");
+            return;
+        }
+        if (node == null) {
+            this.emit(this.binding.handle(((TextMessage) msg).getText()));
+            return;
+        }
+        List<MessageHandler<T>> routed = this.router.route(msg);
+        this.nodeSub.onNext(node);
+        if (routed.isEmpty())
+            this.emit(this.handler.handle(node));
+        else
+            for (MessageHandler<T> h : routed)
+                this.emit(h.handle(node));
+    }
+
+    private void emit(MessageResult<T> result) {
+        // A handler still running when listening stopped must not count up from SUBJECT_COMPLETED
+        if (this.messageCount.getAndUpdate(c -> c == SUBJECT_COMPLETED ? c : c + 1) == SUBJECT_COMPLETED)
+            return;
+        logger.debug("Got a message");
+        statusCounts.increment(result.getStatus());
+        this.messages.add(result);
+        this.resultSubject.onNext(result);
+        this.signalWaiters();
+    }
+
     private Subject<MessageResult<T>>
     setupResultSubject() {
-        ObjectMapper mapper = new ObjectMapper();
         Consumer<MessageResult<T>> next = (n) -> {
-            n.getNode().ifPresent(node -> {
-                JsonNode root = node.get("root");
-                try {
-                    Object text = mapper.treeToValue(root, Object.class);
-                    logger.info(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(text));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
+            n.getNode().ifPresent(node -> this.payloadLog.logResult(logger, node.get("root")));
         };
         Action act = () -> {
             logger.info("resultSubject stopped listening");
         };
-        Subject<MessageResult<T>> subj = PublishSubject.create();
+        Subject<MessageResult<T>> subj = PublishSubject.<MessageResult<T>>create().toSerialized();
         subj.subscribe(next, Throwable::printStackTrace, act);
         return subj;
     }
@@ -162,16 +609,87 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
     @Override
     public MessageListener createListener(MessageParser parser) {
         return msg -> {
+            SessionAcker acker = SessionAcker.claim();
+            Metrics.RECEIVED.mark();
+            try {
+                long sent = msg.getJMSTimestamp();
+                if (sent > 0)
+                    Metrics.END_TO_END.record(System.currentTimeMillis() - sent);
+            } catch (JMSException e) {
+                logger.debug(e.getMessage());
+            }
+            if (this.isStale(msg)) {
+                logger.debug("Skipping a message older than the backlog window");
+                if (acker != null)
+                    acker.done(msg, true);
+                return;
+            }
+            if (this.isCompleted()) {
+                // Listening has ended, and the worker stage with it, so there is nothing left to hand it to
+                logger.debug("Dropping a message that arrived after listening completed");
+                if (acker != null)
+                    acker.done(msg, true);
+                return;
+            }
+            if (this.stage == null) {
+                boolean ok = this.parseAndProcess(parser, msg);
+                if (acker != null)
+                    acker.done(msg, ok);
+                return;
+            }
+            String group = null;
             try {
-                ObjectNode node = parser.parse(msg);
-                // Since nodeSub is a Subject, the call to onNext will pass through the node object to itself
-                this.nodeSub.onNext(node);
-            } catch (ExecutionException | InterruptedException | JMSException e) {
-                this.nodeSub.onError(e);
+                group = this.groupOrdering ? msg.getStringProperty("JMSXGroupID") : null;
+            } catch (JMSException e) {
+                logger.warn(e.getMessage());
+            }
+            try {
+                this.stage.submit(group, () -> {
+                    boolean ok = this.parseAndProcess(parser, msg);
+                    if (acker != null)
+                        acker.done(msg, ok);
+                });
+            } catch (RejectedExecutionException e) {
+                if (this.isCompleted()) {
+                    logger.debug("Dropping a message that arrived as listening completed");
+                    if (acker != null)
+                        acker.done(msg, true);
+                    return;
+                }
+                // The FAIL policy found the queue full, so have the message redelivered
+                if (acker == null)
+                    throw e;
+                logger.warn(String.format("Worker stage rejected a message: %s", e.getMessage()));
+                acker.done(msg, false);
             }
         };
     }
 
+    /**
+     * @return false if parsing or handling the message threw
+     */
+    private boolean parseAndProcess(MessageParser parser, Message msg) {
+        try {
+            boolean typed = this.binding != null && msg instanceof TextMessage;
+            long start = System.nanoTime();
+            ObjectNode node = typed ? null : parser.parse(msg);
+            long parsed = System.nanoTime();
+            if (!typed)
+                Metrics.PARSE.record((parsed - start) / 1000);
+            this.process(msg, node);
+            Metrics.HANDLER.recordSinceNanos(parsed);
+            return true;
+        } catch (ExecutionException | InterruptedException | JMSException e) {
+            this.nodeSub.onError(e);
+        } catch (RuntimeException e) {
+            // Without an ack mode that redelivers, leave it to the session as before
+            if (this.ackMode == AckMode.AUTO)
+                throw e;
+            logger.error(String.format("Handler failed: %s", e.getMessage()));
+        }
+        return false;
+    }
+
     /**
      * A synchronous blocking call to receive a message from the message bus
      *
@@ -180,22 +698,19 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
      */
     @Override
     public Optional<Tuple<Connection, Message>> waitForMessage(String selector) {
-        String brokerUrl = this.broker.getUrl();
-        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerUrl);
+        String brokerUrl = this.getBrokerUrl();
+        // The shared factory, so the tuning, TLS settings and credentials of the broker apply here too
+        ActiveMQConnectionFactory factory = this.setupFactory(brokerUrl, this.broker);
         Connection connection;
         MessageConsumer consumer;
         Message msg;
 
         try {
-            String user = this.broker.getUser();
-            String pw = this.broker.getPassword();
-            factory.setUserName(user);
-            factory.setPassword(pw);
             connection = factory.createConnection();
             connection.setClientID(this.clientID);
             connection.setExceptionListener(exc -> logger.error(exc.getMessage()));
 
-            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Session session = connection.createSession(false, this.ackMode.getSessionMode());
             Topic dest = session.createTopic(this.topic);
 
             if (selector == null || selector.equals(""))
@@ -203,9 +718,19 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
 
             logger.debug(String.format("Using selector of:\n%s", selector));
             connection.start();
-            consumer = session.createConsumer(dest, selector);
-            String timeout = this.broker.getMessageTimeout().toString();
-            msg = consumer.receive(Integer.parseInt(timeout));
+            if (this.durableName != null)
+                consumer = session.createDurableSubscriber(dest, this.durableName, selector, false);
+            else
+                consumer = session.createConsumer(dest, selector);
+            long deadline = System.currentTimeMillis() + this.broker.getMessageTimeout();
+            msg = consumer.receive(this.broker.getMessageTimeout());
+            // Skip over the part of a durable backlog that is too old to matter
+            while (msg != null && this.isStale(msg)) {
+                if (this.ackMode == AckMode.CLIENT || this.ackMode == AckMode.INDIVIDUAL)
+                    msg.acknowledge();
+                long left = deadline - System.currentTimeMillis();
+                msg = left > 0 ? consumer.receive(left) : null;
+            }
 
         } catch (JMSException e) {
             e.printStackTrace();
@@ -232,26 +757,37 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
             logger.info("This CIBusListener already being used.  Create another CIBusListner object");
             return Optional.of(this.connection);
         }
-        String brokerUrl = this.broker.getUrl();
+        String brokerUrl = this.getBrokerUrl();
         ActiveMQConnectionFactory factory = this.setupFactory(brokerUrl, this.broker);
         Connection connection = null;
         MessageConsumer consumer;
         logger.info(String.format("In CIBusListener: Using selector of %s", selector));
 
         try {
+            long start = System.nanoTime();
             connection = factory.createConnection();
             connection.setClientID(this.clientID);
+            Metrics.CONNECT.recordSinceNanos(start);
             connection.setExceptionListener(exc -> logger.error(exc.getMessage()));
 
-            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            Queue dest = session.createQueue(publishDest);
-            if (selector.equals(""))
-                consumer = session.createConsumer(dest);
-            else
-                consumer = session.createConsumer(dest, selector);
+            // Each Session has its own dispatch thread, so N sessions on the same queue share the work N ways
+            for (int i = 0; i < this.concurrency; i++) {
+                Session session = connection.createSession(false, this.ackMode.getSessionMode());
+                Queue dest = session.createQueue(publishDest);
+                if (selector.equals(""))
+                    consumer = session.createConsumer(dest);
+                else
+                    consumer = session.createConsumer(dest, selector);
 
-            // FIXME: We need to have some way to know when we see our message.
-            consumer.setMessageListener(listener);
+                // FIXME: We need to have some way to know when we see our message.
+                if (this.ackMode == AckMode.AUTO)
+                    consumer.setMessageListener(listener);
+                else {
+                    SessionAcker acker = new SessionAcker(session, this.ackMode, this.ackBatchSize, this.ackWindow);
+                    this.ackers.computeIfAbsent(connection, c -> new ArrayList<>()).add(acker);
+                    consumer.setMessageListener(acker.wrap(listener));
+                }
+            }
             connection.start();
         } catch (JMSException e) {
             e.printStackTrace();
@@ -263,6 +799,120 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
         return Optional.ofNullable(connection);
     }
 
+    /**
+     * Closes a Connection returned by tapIntoMessageBus.  Delivery is stopped first, then the messages handled but not
+     * yet acked are acked, so they are not redelivered as they would be if the Connection were just closed.
+     *
+     * @param conn the Connection to close
+     */
+    public void disconnect(Connection conn) throws JMSException {
+        try {
+            conn.stop();
+            List<SessionAcker> acks = this.ackers.remove(conn);
+            if (acks != null)
+                acks.forEach(SessionAcker::close);
+        } finally {
+            if (conn == this.connection)
+                this.connection = null;
+            conn.close();
+        }
+    }
+
+    public Integer getFlowablePrefetch() {
+        return flowablePrefetch;
+    }
+
+    /**
+     * Sets the JMS prefetch used by consumers created for {@link #flowable(String, String)}.  This is the most messages
+     * the broker will push to a flowable ahead of what its subscriber has requested.
+     *
+     * @param flowablePrefetch prefetch size for the flowable's consumer
+     */
+    public void setFlowablePrefetch(Integer flowablePrefetch) {
+        this.flowablePrefetch = flowablePrefetch;
+    }
+
+    /**
+     * The Connection and MessageConsumer owned by one subscription to a flowable
+     */
+    private static class PullConsumer {
+        final Connection connection;
+        final MessageConsumer consumer;
+
+        PullConsumer(Connection connection, MessageConsumer consumer) {
+            this.connection = connection;
+            this.consumer = consumer;
+        }
+    }
+
+    /**
+     * A backpressure aware alternative to tapIntoMessageBus and the Subjects
+     *
+     * Unlike the Subjects, messages are pulled from the broker only as the subscriber requests them, and the consumer
+     * is created with a prefetch of {@link #getFlowablePrefetch()}.  So a slow subscriber simply leaves messages on the
+     * broker, and memory stays bounded no matter how far behind it is.
+     *
+     * The Flowable is cold: each subscriber gets its own Connection and consumer, which are closed when it cancels.
+     * Receiving runs on a dedicated thread per subscriber.  Results from a flowable do not go through the Subjects and
+     * are not counted by listenUntil.  The Flowable never completes on its own, so use take, timeout and the like.
+     *
+     * @param selector String to use for JMS selector, or "" for none
+     * @param address queue to consume from, eg Consumer.clientID.VirtualTopic.qe.ci.>
+     * @return a Flowable of the handled messages
+     */
+    public Flowable<MessageResult<T>> flowable(String selector, String address) {
+        return Flowable.defer(() -> {
+            AtomicBoolean cancelled = new AtomicBoolean(false);
+            return Flowable.<MessageResult<T>, PullConsumer>generate(
+                    () -> this.openPullConsumer(selector, address),
+                    (pc, emitter) -> {
+                        try {
+                            // generate counts every call as one item of demand whether or not it emits, so keep
+                            // polling until a message arrives (or the subscriber cancels) instead of returning empty
+                            Message msg = null;
+                            while (msg == null && !cancelled.get())
+                                msg = pc.consumer.receive(FLOWABLE_POLL);
+                            if (msg == null)
+                                return;
+                            if (this.binding != null && msg instanceof TextMessage)
+                                emitter.onNext(this.binding.handle(((TextMessage) msg).getText()));
+                            else
+                                emitter.onNext(this.handler.handle(this.parseMessage(msg)));
+                        } catch (JMSException e) {
+                            emitter.onError(e);
+                        }
+                    },
+                    pc -> {
+                        try {
+                            pc.connection.close();
+                        } catch (JMSException e) {
+                            logger.error(e.getMessage());
+                        }
+                    })
+                    .doOnCancel(() -> cancelled.set(true));
+        }).subscribeOn(Schedulers.newThread());
+    }
+
+    private PullConsumer openPullConsumer(String selector, String address) throws JMSException {
+        ActiveMQConnectionFactory factory = this.setupFactory(this.getBrokerUrl(), this.broker);
+        Connection conn = factory.createConnection();
+        try {
+            conn.setClientID(String.format("%s.flowable.%d", this.clientID, this.flowableCount.incrementAndGet()));
+            conn.setExceptionListener(exc -> logger.error(exc.getMessage()));
+            Session session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            String sep = address.contains("?") ? "&" : "?";
+            Queue dest = session.createQueue(String.format("%s%sconsumer.prefetchSize=%d", address, sep, this.flowablePrefetch));
+            MessageConsumer consumer = selector.equals("")
+                    ? session.createConsumer(dest)
+                    : session.createConsumer(dest, selector);
+            conn.start();
+            return new PullConsumer(conn, consumer);
+        } catch (JMSException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
     public MessageParser messageParser() {
         return this::parseMessage;
     }
@@ -278,40 +928,18 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
      */
     @Override
     public ObjectNode parseMessage(Message msg) throws JMSException  {
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode root = mapper.createObjectNode();
-        if (msg instanceof MapMessage) {
-            MapMessage mm = (MapMessage) msg;
-            Enumeration names = mm.getMapNames();
-            while(names.hasMoreElements()) {
-                String p = (String) names.nextElement();
-                String field = mm.getStringProperty(p);
-                root.set(field, mapper.convertValue(mm.getObject(field), JsonNode.class));
-            }
-            return root;
-        }
-        else if (msg instanceof TextMessage) {
+        if (msg instanceof MapMessage)
+            return MapMessageConverter.toNode((MapMessage) msg);
+        ObjectNode root = Json.NODES.objectNode();
+        if (msg instanceof TextMessage) {
             TextMessage tm = (TextMessage) msg;
-            Enumeration props = tm.getPropertyNames();
-            while(props.hasMoreElements()) {
-                String p = props.nextElement().toString();
-                if (p.equals("type")) {
-                    String val = msg.getStringProperty("type");
-                    logger.info(String.format("Message prop: type=%s", val));
-                }
-                else if (p.equals("rhsm_qe")) {
-                    String val = msg.getStringProperty("rhsm_qe");
-                    logger.info(String.format("Message prop: rhsm_qe=%s", val));
-                }
-                else if (p.equals("job-id")) {
-                    String val = msg.getStringProperty("job-id");
-                    logger.info(String.format("Message prop: job-id=%s", val));
-                }
-            }
             String text = tm.getText();
-            logger.info(text);
+            this.payloadLog.logMessage(logger, msg, text);
             try {
-                JsonNode node = mapper.readTree(text);
+                PathExtractor extract = this.currentExtractor();
+                JsonNode node = extract == null
+                        ? Json.TREE_READER.readTree(text)
+                        : extract.extract(text);
                 root.set("root", node);  // FIXME: this is hacky
             } catch (IOException e) {
                 e.printStackTrace();
@@ -324,34 +952,84 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
         return root;
     }
 
+    /**
+     * A caller of listenUntilAsync waiting for the message count to reach target
+     */
+    private static class CountWaiter {
+        final Integer target;
+        final CompletableFuture<Integer> future;
+
+        CountWaiter(Integer target, CompletableFuture<Integer> future) {
+            this.target = target;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Completes every waiter whose target count has been reached.  Called after each message is handled.
+     */
+    private void signalWaiters() {
+        Integer count = this.messageCount.get();
+        for (CountWaiter w : this.waiters) {
+            if (count >= w.target)
+                w.future.complete(count);
+        }
+    }
+
+    /**
+     * Overrides the broker's timeout value with the given timeout and count, without blocking
+     *
+     * The returned future completes as soon as count messages have been handled, or once timeout milliseconds have
+     * passed, whichever comes first.  Either way, the node Subject is then completed so no more messages are handled.
+     *
+     * @param timeout number of milliseconds to wait
+     * @param count number of messages to wait for
+     * @return a future holding the number of messages handled when it completed
+     */
+    public CompletableFuture<Integer> listenUntilAsync(Long timeout, Integer count) {
+        CompletableFuture<Integer> reached = new CompletableFuture<>();
+        CountWaiter waiter = new CountWaiter(count, reached);
+        logger.info("Begin listening for message.  Times out at " + Instant.now().plusMillis(timeout).toString());
+
+        // Completing reached also completes nodeSub and shuts down the stage, which block, so not on the timer thread
+        ScheduledFuture<?> deadline = Timers
+                .scheduleBlocking(() -> reached.complete(this.messageCount.get()), timeout, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        ScheduledFuture<?> progress = Timers.shared().scheduleAtFixedRate(() -> {
+            String msg = "Current msg count = %d. Waiting on message for %d seconds...";
+            long waited = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+            logger.info(String.format(msg, this.messageCount.get(), waited));
+        }, 10, 10, TimeUnit.SECONDS);
+
+        this.waiters.add(waiter);
+        // The count may already have been reached before we registered
+        this.signalWaiters();
+
+        return reached.whenComplete((n, err) -> {
+            deadline.cancel(false);
+            progress.cancel(false);
+            this.waiters.remove(waiter);
+            this.nodeSub.onComplete();
+        });
+    }
+
     /**
      * Overrides the broker's timeout value with the given timeout and count
      *
-     * Loop will stop once either the timeout has expired or the number of messages of reached is received
+     * Blocks until either the timeout has expired or the given number of messages has been received
      *
      * @param timeout number of milliseconds to wait
-     * @param count number of
+     * @param count number of messages to wait for
      */
     public void listenUntil(Long timeout, Integer count) {
-        Long start = Instant.now().getEpochSecond();
-        Long end = start + (timeout / 1000);
-        Instant endtime = Instant.ofEpochSecond(end);
-        int mod = 0;
-        logger.info("Begin listening for message.  Times out at " + endtime.toString());
-        while(true) {
-            if (this.messageCount >= count || Instant.now().getEpochSecond() > end)
-                break;
-            try {
-                Thread.sleep(1000);
-                mod++;
-                String msg = "Current msg count = %d. Waiting on message for %d seconds...";
-                if (mod % 10 == 0)
-                    logger.info(String.format(msg, this.messageCount, mod));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        try {
+            this.listenUntilAsync(timeout, count).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
         }
-        this.nodeSub.onComplete();
     }
 
     public void listenUntil() {
@@ -395,18 +1073,20 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
         props.put("rhsm_qe", "polarize_bus");
 
         String sel = "rhsm_qe='xunit_importer'";
-        String publishDest = String.format("Consumer.%s.%s", bl.clientID, TOPIC);
+        // A stable name means the consumer queue exists from the first run on, so no need to wait before publishing
+        bl.setDurable("polarize-main2");
+        // The queue for the one topic we publish to, rather than the wildcard one, so it can be deleted at the end
+        String publishDest = bl.getConsumerQueue(CIBusPublisher.DEFAULT_PUBLISH_DEST);
+        bl.register(sel, publishDest);
         Optional<Connection> rconn = bl.tapIntoMessageBus(sel, bl.createListener(bl.messageParser()), publishDest);
-        //Thread.sleep(10000);
         Optional<Connection> sconn = cbp.sendMessage(body, b, new JMSMessageOptions("stoner-polarize", props));
 
         bl.listenUntil(10);
         MessageResult<DefaultResult> result = bl.messages.remove();
         if (result.getNode().isPresent()) {
             ObjectNode node = result.getNode().get();
-            ObjectMapper mapper = new ObjectMapper();
             try {
-                JsonNode testNode = mapper.readTree(body);
+                JsonNode testNode = Json.TREE_READER.readTree(body);
                 String expected = testNode.get("testing").textValue();
                 bl.logger.info("Testing value was " + expected);
                 //JsonNode testing = node.get("root");
@@ -421,7 +1101,7 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
         rconn.ifPresent((Connection c) -> {
             try {
                 bl.logger.info("Closing the receiver connection");
-                c.close();
+                bl.disconnect(c);
             } catch (JMSException e) {
                 e.printStackTrace();
             }
@@ -435,12 +1115,32 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
                 e.printStackTrace();
             }
         });
+
+        // This is only a demo, so don't leave the durable queue behind to collect messages forever.  unsubscribe only
+        // removes the durable topic subscription, not the virtual topic queue.
+        bl.logger.info(String.format("Deleting %s", publishDest));
+        bl.deleteQueue(publishDest);
     }
 
     public Connection getConnection() {
         return connection;
     }
 
+    /**
+     * The paths of an XUnit importer reply that xunitMsgHandler reads to decide its result
+     */
+    public static final List<String> XUNIT_REPLY_PATHS = Collections.unmodifiableList(Arrays.asList(
+            "status", "testrun-url", "message", "import-results[].status", "import-results[].suite-name"));
+
+    /**
+     * Handler for replies from the XUnit importer
+     *
+     * On SUCCESS it stores the whole reply, so it does not declare paths and streaming mode parses the whole message
+     * for it.  Wrapping it with {@link MessageHandler#withPaths} and XUNIT_REPLY_PATHS gives the same status, but the
+     * stored text then holds only those paths.
+     *
+     * @return MessageHandler for XUnit importer replies
+     */
     public static MessageHandler<DefaultResult> xunitMsgHandler() {
         return (ObjectNode node) -> {
             JsonNode root = node.get("root");
@@ -450,7 +1150,7 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
             try {
                 Boolean passed = root.get("status").textValue().equals("passed");
                 if (passed) {
-                    logger.info("In xunitMsgHandler: XUnit importer was successful");
+                    logger.debug("In xunitMsgHandler: XUnit importer was successful");
                     String testrunUrl = root.get("testrun-url").textValue();
                     logger.info(String.format("Polarion TestRun = %s", testrunUrl));
                     result.info.setText(JsonHelper.nodeToString(root));
@@ -496,6 +1196,55 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
     }
 
 
+    /**
+     * Same as xunitMsgHandler, but for use with setTypedHandler and XUnitImportResult, so no tree is built.  It gives
+     * the same status and error details as xunitMsgHandler for the same reply, and stores the reply as received on
+     * SUCCESS.
+     *
+     * @return TypedMessageHandler for XUnit importer replies
+     */
+    public static TypedMessageHandler<XUnitImportResult, DefaultResult> xunitTypedHandler() {
+        return (XUnitImportResult reply, String text) -> {
+            MessageResult<DefaultResult> result = new MessageResult<>();
+            result.info = new DefaultResult();
+
+            if (reply.getStatus() == null)
+                return unknownReply(result);
+            if (reply.getStatus().equals("passed")) {
+                if (reply.getTestrunUrl() == null)
+                    return unknownReply(result);
+                logger.debug("In xunitTypedHandler: XUnit importer was successful");
+                logger.info(String.format("Polarion TestRun = %s", reply.getTestrunUrl()));
+                result.info.setText(text);
+                result.setStatus(MessageResult.Status.SUCCESS);
+            }
+            else if (reply.getImportResults() != null) {
+                List<String> suites = reply.failedSuites();
+                suites.forEach(suite -> logger.info(suite + " failed to be updated"));
+                result.setStatus(MessageResult.Status.FAILED);
+                result.setErrorDetails("TestSuites failed to be updated: " + String.join(",", suites));
+            }
+            else if (reply.getMessage() == null)
+                return unknownReply(result);
+            else {
+                logger.error(reply.getMessage());
+                result.setStatus(MessageResult.Status.EMPTY_MESSAGE);
+                // xunitMsgHandler gives the message as JSON, quotes included
+                result.setErrorDetails(Json.NODES.textNode(reply.getMessage()).toString());
+            }
+            return result;
+        };
+    }
+
+    private static MessageResult<DefaultResult> unknownReply(MessageResult<DefaultResult> result) {
+        String err = "Unknown format of message from bus";
+        logger.error(err);
+        result.setStatus(MessageResult.Status.NP_EXCEPTION);
+        result.setErrorDetails(err);
+        return result;
+    }
+
+
     /**
      * Does 2 things: launches waitForMessage from a Fork/Join pool thread and the main thread waits for user to quit
      *
@@ -532,7 +1281,6 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
             MessageResult<DefaultResult> result = bl.messages.remove();
             if (result.getNode().isPresent()) {
                 ObjectNode node = result.getNode().get();
-                ObjectMapper mapper = new ObjectMapper();
                 JsonNode testing = node.get("root");
                 //bl.logger.info(testing.asText());
             } else
@@ -542,7 +1290,7 @@ public class CIBusListener<T> extends CIBusClient implements ICIBus, IMessageLis
         rconn.ifPresent((Connection c) -> {
             try {
                 logger.info("Closing the receiver connection");
-                c.close();
+                bl.disconnect(c);
             } catch (JMSException e) {
                 e.printStackTrace();
             }
@@ -3,25 +3,55 @@ package com.github.redhatqe.polarizer.messagebus;
 import com.github.redhatqe.polarizer.messagebus.config.Broker;
 import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
 import com.github.redhatqe.polarizer.messagebus.exceptions.NoConfigFoundError;
+import com.github.redhatqe.polarizer.messagebus.metrics.Metrics;
+import com.github.redhatqe.polarizer.messagebus.pool.PoolSettings;
+import com.github.redhatqe.polarizer.messagebus.pool.PooledProducer;
+import com.github.redhatqe.polarizer.messagebus.pool.ProducerPool;
 import com.github.redhatqe.polarizer.messagebus.utils.ArgHelper;
 import com.github.redhatqe.polarizer.messagebus.utils.Tuple;
+import io.reactivex.Single;
+import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.*;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.*;
 
 /**
  * Publishes messages to the central CI Message Bus
  *
+ * By default, every call to sendMessage opens (and hands back) a brand new Connection.  When pooled mode is turned on
+ * with {@link #setPooled(Boolean)}, sendMessage instead borrows a Connection/Session/MessageProducer from a bounded
+ * {@link ProducerPool} kept for each broker url, so repeated publishes skip the TCP and TLS handshakes.  The publish
+ * methods always use the pool.  Call {@link #close()} when done to shut the pools down.
  */
-public class CIBusPublisher extends CIBusClient implements ICIBus {
+public class CIBusPublisher extends CIBusClient implements ICIBus, AutoCloseable {
     public Logger logger = LoggerFactory.getLogger(CIBusListener.class.getName());
     private String publishDest;
+    private Boolean pooled = false;
+    private PoolSettings poolSettings = new PoolSettings();
+    private final Map<String, ProducerPool> pools = new ConcurrentHashMap<>();
+    private ExecutorService asyncExecutor = null;
+    private Boolean ownsExecutor = false;
+    private Outbox outbox = null;
+    private volatile boolean closed = false;
+    // The Broker each url in the outbox was published with, so the drainer uses the same credentials
+    private final Map<String, Broker> outboxBrokers = new ConcurrentHashMap<>();
+    public static final Integer DEFAULT_ASYNC_THREADS = 4;
+    public static final Integer DEFAULT_ASYNC_QUEUE = 1024;
     public static final String DEFAULT_PUBLISH_DEST = "VirtualTopic.qe.ci.jenkins";
+    private static final Metrics.EnumCounters<MessageResult.Status> statusCounts =
+            new Metrics.EnumCounters<>(Metrics.REGISTRY, "publisher.status", MessageResult.Status.class);
 
     public String getPublishDest() {
         return publishDest;
@@ -31,6 +61,130 @@ public class CIBusPublisher extends CIBusClient implements ICIBus {
         this.publishDest = publishDest;
     }
 
+    public Boolean getPooled() {
+        return pooled;
+    }
+
+    /**
+     * When true, sendMessage publishes through a pooled connection and no longer returns a Connection to the caller
+     *
+     * @param pooled whether to use pooled mode
+     */
+    public void setPooled(Boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Sets the executor used by publishAsync.  The caller keeps ownership and must shut it down.  If this is never
+     * called, a bounded pool of DEFAULT_ASYNC_THREADS threads with a queue of DEFAULT_ASYNC_QUEUE publishes is used.
+     *
+     * @param executor executor to run publishes on
+     */
+    public synchronized void setAsyncExecutor(ExecutorService executor) {
+        if (this.ownsExecutor && this.asyncExecutor != null)
+            this.asyncExecutor.shutdown();
+        this.asyncExecutor = executor;
+        this.ownsExecutor = false;
+    }
+
+    private synchronized ExecutorService getAsyncExecutor() {
+        if (this.closed)
+            throw new java.lang.IllegalStateException("The publisher is closed");
+        if (this.asyncExecutor == null) {
+            ThreadFactory tf = r -> {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName("polarizer-umb-publish-" + t.getName());
+                t.setDaemon(true);
+                return t;
+            };
+            this.asyncExecutor = new ThreadPoolExecutor( DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_THREADS
+                                                       , 60L, TimeUnit.SECONDS
+                                                       , new ArrayBlockingQueue<>(DEFAULT_ASYNC_QUEUE), tf);
+            this.ownsExecutor = true;
+        }
+        return this.asyncExecutor;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Turns on the outbox: a message that can't be published is appended to it instead of being lost, and sent again
+     * in the background once the broker is reachable.  While the outbox has messages waiting for a url, new messages
+     * to that url are appended behind them too, so they still reach the broker in order.  Messages to other urls are
+     * sent as usual.  Such messages get a PENDING result.  The caller keeps ownership of the outbox and must close
+     * it, but closing this publisher stops the outbox sending through it.  sendBatch does not use the outbox.
+     *
+     * @param outbox the outbox to use
+     */
+    public void setOutbox(Outbox outbox) {
+        this.outbox = outbox;
+        outbox.drainTo(this, new BatchOptions(), Outbox.DEFAULT_DRAIN_INTERVAL);
+    }
+
+    /**
+     * @return true if the outbox has messages waiting for url, so that a new message to url must go behind them
+     */
+    boolean behindOutbox(String url) {
+        return this.outbox != null && this.outbox.getPending(url) > 0;
+    }
+
+    /**
+     * Finds the Broker whose credentials to use for url: the one it was last stored in the outbox with, else the
+     * broker in the BrokerConfig with that url, else the default broker (which covers the failover: url)
+     *
+     * @param url url of a broker
+     * @return the Broker for url
+     */
+    Broker brokerFor(String url) {
+        Broker b = this.outboxBrokers.get(url);
+        if (b != null)
+            return b;
+        for (Broker c : this.brokerConfig.getBrokers().values())
+            if (url.equals(c.getUrl()))
+                return c;
+        return this.broker;
+    }
+
+    /**
+     * Appends the message to the outbox, if there is one
+     *
+     * @return true if the message was stored, and result is then marked PENDING
+     */
+    private boolean toOutbox( String text
+                            , String url
+                            , Broker broker
+                            , JMSMessageOptions opts
+                            , MessageResult<String> result) {
+        if (this.outbox == null)
+            return false;
+        try {
+            this.outboxBrokers.put(url, broker);
+            this.outbox.append(new OutboxRecord(url, text, opts));
+        } catch (IOException e) {
+            this.logger.error(String.format("Could not store message in the outbox: %s", e.getMessage()));
+            return false;
+        }
+        result.info = null;
+        result.setStatus(MessageResult.Status.PENDING);
+        result.setErrorDetails("Stored in the outbox to be sent later");
+        return true;
+    }
+
+    public PoolSettings getPoolSettings() {
+        return poolSettings;
+    }
+
+    /**
+     * Sets the settings used for pools created after this call
+     *
+     * @param poolSettings settings for new pools
+     */
+    public void setPoolSettings(PoolSettings poolSettings) {
+        this.poolSettings = poolSettings;
+    }
+
     public CIBusPublisher() {
         this("");
     }
@@ -79,6 +233,13 @@ public class CIBusPublisher extends CIBusClient implements ICIBus {
                 e.printStackTrace();
             }
 
+        if (!opts.correlationID.equals(""))
+            try {
+                msg.setJMSCorrelationID(opts.correlationID);
+            } catch (JMSException e) {
+                e.printStackTrace();
+            }
+
         opts.props.forEach((k, v) -> {
             try {
                 msg.setStringProperty(k, v);
@@ -95,13 +256,26 @@ public class CIBusPublisher extends CIBusClient implements ICIBus {
 
     /**
      * Sends a JMS Message to a broker
-     * @param text
-     * @param url
-     * @param opts
-     * @return
+     *
+     * In pooled mode the message is sent on a pooled connection and an empty Optional is returned, since the
+     * connection belongs to the pool.  Otherwise a new connection is opened, and the caller must close it.
+     *
+     * @param text body of the TextMessage
+     * @param url url of the broker
+     * @param opts options for the message
+     * @return the Connection the message was sent on, or empty in pooled mode
      */
     public Optional<Connection>
     sendMessage(String text, String url, JMSMessageOptions opts) {
+        if (this.pooled) {
+            this.publish(text, url, this.broker, opts);
+            return Optional.empty();
+        }
+        if (this.behindOutbox(url)) {
+            this.toOutbox(text, url, this.broker, opts, new MessageResult<>());
+            return Optional.empty();
+        }
+
         ActiveMQConnectionFactory factory = this.setupFactory(url, this.broker);
         Connection connection = null;
         MessageProducer producer;
@@ -122,10 +296,447 @@ public class CIBusPublisher extends CIBusClient implements ICIBus {
             producer.send(msg, opts.mode, opts.priority, opts.ttl);
         } catch (JMSException e) {
             e.printStackTrace();
+            this.toOutbox(text, url, this.broker, opts, new MessageResult<>());
         }
         return Optional.ofNullable(connection);
     }
 
+    /**
+     * Sends a message to the default broker on a pooled connection
+     *
+     * @param text body of the TextMessage
+     * @param opts options for the message
+     * @return a MessageResult whose info is the JMSMessageID on SUCCESS, or with status JMS_EXCEPTION on failure
+     */
+    public MessageResult<String> publish(String text, JMSMessageOptions opts) {
+        return this.publish(text, this.getBrokerUrl(), this.broker, opts);
+    }
+
+    public MessageResult<String> publish(String text, Broker broker, JMSMessageOptions opts) {
+        return this.publish(text, broker.getUrl(), broker, opts);
+    }
+
+    /**
+     * Sends a message on a connection borrowed from the pool for the url
+     *
+     * @param text body of the TextMessage
+     * @param url url of the broker
+     * @param broker Broker whose credentials are used if a new connection must be opened
+     * @param opts options for the message
+     * @return a MessageResult whose info is the JMSMessageID on SUCCESS, or with status JMS_EXCEPTION on failure
+     */
+    public MessageResult<String> publish(String text, String url, Broker broker, JMSMessageOptions opts) {
+        long start = System.nanoTime();
+        MessageResult<String> result = new MessageResult<>();
+        if (this.behindOutbox(url) && this.toOutbox(text, url, broker, opts, result))
+            return finish(result, start);
+        try (PooledProducer pp = this.getPool(url, broker).borrow()) {
+            try {
+                TextMessage msg = pp.getSession().createTextMessage(text);
+                setOptionals(msg, opts);
+                pp.getProducer().send(pp.topic(this.publishDest), msg, opts.mode, opts.priority, opts.ttl);
+                result.info = msg.getJMSMessageID();
+                result.setStatus(MessageResult.Status.SUCCESS);
+            } catch (JMSException e) {
+                // We can't tell a dead connection from a rejected message, so don't hand this one out again
+                pp.invalidate();
+                throw e;
+            }
+        } catch (JMSException e) {
+            this.logger.error(String.format("Failed to publish to %s: %s", url, e.getMessage()));
+            result.setStatus(MessageResult.Status.JMS_EXCEPTION);
+            result.setErrorDetails(e.getMessage());
+            this.toOutbox(text, url, broker, opts, result);
+        }
+        return finish(result, start);
+    }
+
+    public CompletableFuture<MessageResult<String>> publishAsync(String text, JMSMessageOptions opts) {
+        return this.publishAsync(text, this.getBrokerUrl(), this.broker, opts);
+    }
+
+    /**
+     * Sends a message without blocking the caller
+     *
+     * The send runs on a bounded executor using ActiveMQ's asynchronous send, so the executor thread is freed as
+     * soon as the message is written and the future is completed when the broker acknowledges it.  If the executor
+     * queue is full, the future completes right away with SEND_FAIL.
+     *
+     * @param text body of the TextMessage
+     * @param url url of the broker
+     * @param broker Broker whose credentials are used if a new connection must be opened
+     * @param opts options for the message
+     * @return a future that completes with a MessageResult whose info is the JMSMessageID on SUCCESS, or with status
+     *         JMS_EXCEPTION or SEND_FAIL on failure.  It is never completed exceptionally.
+     */
+    public CompletableFuture<MessageResult<String>>
+    publishAsync(String text, String url, Broker broker, JMSMessageOptions opts) {
+        return this.publishAsync(text, url, broker, opts, true);
+    }
+
+    /**
+     * Like publishAsync, but with useOutbox false the message is neither queued behind the outbox nor stored in it
+     * when the send fails, so the caller can try another broker first
+     */
+    CompletableFuture<MessageResult<String>>
+    publishAsync(String text, String url, Broker broker, JMSMessageOptions opts, boolean useOutbox) {
+        long start = System.nanoTime();
+        CompletableFuture<MessageResult<String>> future = new CompletableFuture<>();
+        MessageResult<String> stored = new MessageResult<>();
+        if (useOutbox && this.behindOutbox(url) && this.toOutbox(text, url, broker, opts, stored)) {
+            future.complete(finish(stored, start));
+            return future;
+        }
+        try {
+            this.getAsyncExecutor().execute(() -> this.sendAsync(text, url, broker, opts, useOutbox, future, start));
+        } catch (RejectedExecutionException e) {
+            MessageResult<String> result = new MessageResult<>();
+            markFailed(result, MessageResult.Status.SEND_FAIL, "Too many publishes in flight");
+            future.complete(finish(result, start));
+        }
+        return future;
+    }
+
+    /**
+     * Like publishAsync, but as a Single.  Nothing is sent until the Single is subscribed to.
+     */
+    public Single<MessageResult<String>> publishSingle(String text, JMSMessageOptions opts) {
+        return Single.create(emitter -> this.publishAsync(text, opts).thenAccept(emitter::onSuccess));
+    }
+
+    private void sendAsync( String text
+                          , String url
+                          , Broker broker
+                          , JMSMessageOptions opts
+                          , boolean useOutbox
+                          , CompletableFuture<MessageResult<String>> future
+                          , long start) {
+        MessageResult<String> result = new MessageResult<>();
+        PooledProducer pp;
+        try {
+            pp = this.getPool(url, broker).borrow();
+        } catch (JMSException e) {
+            this.asyncFailed(text, url, broker, opts, useOutbox, result, e, future, start);
+            return;
+        } catch (java.lang.IllegalStateException e) {
+            // The publisher was closed while this publish was queued
+            markFailed(result, MessageResult.Status.JMS_EXCEPTION, e.getMessage());
+            future.complete(finish(result, start));
+            return;
+        }
+
+        // With an async send the callback fires after this method returns, so pp stays borrowed until then and is
+        // given back (or thrown away) by the callback
+        boolean sent = false;
+        try {
+            TextMessage msg = pp.getSession().createTextMessage(text);
+            setOptionals(msg, opts);
+            Topic dest = pp.topic(this.publishDest);
+            MessageProducer producer = pp.getProducer();
+            if (producer instanceof ActiveMQMessageProducer) {
+                AsyncCallback cb = new AsyncCallback() {
+                    @Override
+                    public void onSuccess() {
+                        pp.close();
+                        try {
+                            // The id is only assigned by send
+                            result.info = msg.getJMSMessageID();
+                        } catch (JMSException e) {
+                            logger.warn(String.format("Could not read the JMSMessageID: %s", e.getMessage()));
+                        }
+                        result.setStatus(MessageResult.Status.SUCCESS);
+                        future.complete(finish(result, start));
+                    }
+
+                    @Override
+                    public void onException(JMSException e) {
+                        pp.invalidate();
+                        pp.close();
+                        asyncFailed(text, url, broker, opts, useOutbox, result, e, future, start);
+                    }
+                };
+                ((ActiveMQMessageProducer) producer).send(dest, msg, opts.mode, opts.priority, opts.ttl, cb);
+                sent = true;
+            }
+            else {
+                producer.send(dest, msg, opts.mode, opts.priority, opts.ttl);
+                sent = true;
+                pp.close();
+                result.info = msg.getJMSMessageID();
+                result.setStatus(MessageResult.Status.SUCCESS);
+                future.complete(finish(result, start));
+            }
+        } catch (JMSException e) {
+            // The send never happened, so no callback will release pp.  We can't tell a dead connection from a
+            // rejected message, so don't hand this one out again.
+            if (!sent) {
+                pp.invalidate();
+                pp.close();
+            }
+            this.asyncFailed(text, url, broker, opts, useOutbox, result, e, future, start);
+        }
+    }
+
+    private void asyncFailed( String text
+                            , String url
+                            , Broker broker
+                            , JMSMessageOptions opts
+                            , boolean useOutbox
+                            , MessageResult<String> result
+                            , JMSException e
+                            , CompletableFuture<MessageResult<String>> future
+                            , long start) {
+        this.logger.error(String.format("Failed to publish to %s: %s", url, e.getMessage()));
+        markFailed(result, MessageResult.Status.JMS_EXCEPTION, e.getMessage());
+        if (useOutbox)
+            this.toOutbox(text, url, broker, opts, result);
+        future.complete(finish(result, start));
+    }
+
+    public List<MessageResult<String>> sendBatch(List<String> bodies, JMSMessageOptions opts) {
+        return this.sendBatch(bodies, opts, new BatchOptions());
+    }
+
+    /**
+     * Sends many messages to the default broker over a single pooled connection
+     *
+     * Messages are sent in a transacted session which is committed every batchSize messages, or once commitInterval
+     * milliseconds have passed, so that one broker round trip covers a whole group of messages.  If a send fails,
+     * that message is marked SEND_FAIL and the rest of its uncommitted group is rolled back and marked
+     * JMS_EXCEPTION.  If a commit fails, its whole group is marked JMS_EXCEPTION.  Unless batch stops on failure,
+     * the messages after a failure are still sent.
+     *
+     * @param bodies the bodies of the TextMessages to send
+     * @param opts options applied to every message
+     * @param batch how to group the messages
+     * @return one MessageResult per body, in the same order.  On SUCCESS, info is the JMSMessageID
+     */
+    public List<MessageResult<String>>
+    sendBatch(List<String> bodies, JMSMessageOptions opts, BatchOptions batch) {
+        return this.sendBatch(this.getBrokerUrl(), this.broker, bodies, Collections.nCopies(bodies.size(), opts), batch);
+    }
+
+    /**
+     * Like sendBatch, but to any broker and with separate options for each message
+     *
+     * @param url url of the broker
+     * @param broker Broker whose credentials are used if a new connection must be opened
+     * @param bodies the bodies of the TextMessages to send
+     * @param opts options for each message, in the same order as bodies
+     * @param batch how to group the messages
+     * @return one MessageResult per body, in the same order.  On SUCCESS, info is the JMSMessageID
+     */
+    public List<MessageResult<String>>
+    sendBatch(String url, Broker broker, List<String> bodies, List<JMSMessageOptions> opts, BatchOptions batch) {
+        List<MessageResult<String>> results = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++)
+            results.add(new MessageResult<>());
+
+        PooledProducer pp;
+        try {
+            pp = this.getPool(url, broker).borrow();
+        } catch (JMSException e) {
+            this.logger.error(String.format("Failed to get a connection to %s: %s", url, e.getMessage()));
+            results.forEach(r -> markFailed(r, MessageResult.Status.JMS_EXCEPTION, e.getMessage()));
+            return results;
+        }
+
+        ActiveMQConnection amq = null;
+        Boolean wasAsync = false;
+        if (batch.asyncSend && pp.getConnection() instanceof ActiveMQConnection) {
+            amq = (ActiveMQConnection) pp.getConnection();
+            wasAsync = amq.isUseAsyncSend();
+            amq.setUseAsyncSend(true);
+        }
+
+        try {
+            if (batch.transacted)
+                this.sendTransacted(pp, bodies, opts, batch, results);
+            else
+                this.sendEach(pp, bodies, opts, batch, results);
+        } finally {
+            if (amq != null)
+                amq.setUseAsyncSend(wasAsync);
+            pp.close();
+        }
+        return results;
+    }
+
+    private void sendTransacted( PooledProducer pp
+                               , List<String> bodies
+                               , List<JMSMessageOptions> opts
+                               , BatchOptions batch
+                               , List<MessageResult<String>> results) {
+        Session session;
+        MessageProducer producer;
+        Topic dest;
+        try {
+            session = pp.getTransactedSession();
+            producer = pp.getTransactedProducer();
+            dest = pp.topic(this.publishDest);
+        } catch (JMSException e) {
+            pp.invalidate();
+            results.forEach(r -> markFailed(r, MessageResult.Status.JMS_EXCEPTION, e.getMessage()));
+            return;
+        }
+
+        List<Integer> pending = new ArrayList<>();
+        long groupStart = System.currentTimeMillis();
+        for (int i = 0; i < bodies.size(); i++) {
+            MessageResult<String> result = results.get(i);
+            try {
+                TextMessage msg = session.createTextMessage(bodies.get(i));
+                JMSMessageOptions o = opts.get(i);
+                setOptionals(msg, o);
+                producer.send(dest, msg, o.mode, o.priority, o.ttl);
+                result.info = msg.getJMSMessageID();
+                pending.add(i);
+            } catch (JMSException e) {
+                this.logger.error(String.format("Send failed in batch: %s", e.getMessage()));
+                markFailed(result, MessageResult.Status.SEND_FAIL, e.getMessage());
+                this.rollback(session, pending, results);
+                if (batch.stopOnFailure) {
+                    skipRest(results, i + 1);
+                    return;
+                }
+                groupStart = System.currentTimeMillis();
+                continue;
+            }
+
+            boolean last = i == bodies.size() - 1;
+            boolean full = pending.size() >= batch.batchSize;
+            boolean stale = System.currentTimeMillis() - groupStart >= batch.commitInterval;
+            if (last || full || stale) {
+                if (!this.commit(pp, session, pending, results) && batch.stopOnFailure) {
+                    skipRest(results, i + 1);
+                    return;
+                }
+                groupStart = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * @return true if the commit succeeded
+     */
+    private boolean
+    commit(PooledProducer pp, Session session, List<Integer> pending, List<MessageResult<String>> results) {
+        boolean ok = true;
+        try {
+            session.commit();
+            pending.forEach(i -> results.get(i).setStatus(MessageResult.Status.SUCCESS));
+        } catch (JMSException e) {
+            this.logger.error(String.format("Commit of %d messages failed: %s", pending.size(), e.getMessage()));
+            pp.invalidate();
+            pending.forEach(i -> markFailed(results.get(i), MessageResult.Status.JMS_EXCEPTION, e.getMessage()));
+            ok = false;
+        }
+        pending.clear();
+        return ok;
+    }
+
+    /**
+     * Marks the results from index from on as not sent
+     */
+    private static void skipRest(List<MessageResult<String>> results, int from) {
+        String err = "Not sent because an earlier message in the batch failed";
+        for (int i = from; i < results.size(); i++)
+            markFailed(results.get(i), MessageResult.Status.JMS_EXCEPTION, err);
+    }
+
+    private void rollback(Session session, List<Integer> pending, List<MessageResult<String>> results) {
+        try {
+            session.rollback();
+        } catch (JMSException e) {
+            this.logger.error(String.format("Rollback failed: %s", e.getMessage()));
+        }
+        String err = "Rolled back because another message in the transaction failed";
+        pending.forEach(i -> markFailed(results.get(i), MessageResult.Status.JMS_EXCEPTION, err));
+        pending.clear();
+    }
+
+    private void sendEach( PooledProducer pp
+                         , List<String> bodies
+                         , List<JMSMessageOptions> opts
+                         , BatchOptions batch
+                         , List<MessageResult<String>> results) {
+        for (int i = 0; i < bodies.size(); i++) {
+            MessageResult<String> result = results.get(i);
+            try {
+                TextMessage msg = pp.getSession().createTextMessage(bodies.get(i));
+                JMSMessageOptions o = opts.get(i);
+                setOptionals(msg, o);
+                pp.getProducer().send(pp.topic(this.publishDest), msg, o.mode, o.priority, o.ttl);
+                result.info = msg.getJMSMessageID();
+                result.setStatus(MessageResult.Status.SUCCESS);
+            } catch (JMSException e) {
+                pp.invalidate();
+                markFailed(result, MessageResult.Status.SEND_FAIL, e.getMessage());
+                if (batch.stopOnFailure) {
+                    skipRest(results, i + 1);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the result by status, and records the publish latency if it succeeded
+     *
+     * @param start System.nanoTime() when the publish was asked for
+     * @return result
+     */
+    private static MessageResult<String> finish(MessageResult<String> result, long start) {
+        statusCounts.increment(result.getStatus());
+        if (result.getStatus() == MessageResult.Status.SUCCESS)
+            Metrics.PUBLISH.recordSinceNanos(start);
+        return result;
+    }
+
+    private static void markFailed(MessageResult<String> result, MessageResult.Status status, String err) {
+        result.info = null;
+        result.setStatus(status);
+        result.setErrorDetails(err);
+    }
+
+    /**
+     * Gets the ProducerPool for the url, creating it on first use
+     *
+     * @param url url of the broker
+     * @param broker Broker whose credentials the pool will use
+     * @return the ProducerPool for the url
+     */
+    public ProducerPool getPool(String url, Broker broker) {
+        if (this.closed)
+            throw new java.lang.IllegalStateException("The publisher is closed");
+        return this.pools.computeIfAbsent(url, u -> {
+            // close may have run since the check above, and nothing would close a pool made now
+            if (this.closed)
+                throw new java.lang.IllegalStateException("The publisher is closed");
+            ActiveMQConnectionFactory factory = this.setupFactory(u, broker);
+            return new ProducerPool(u, factory, this.clientID + "." + this.uuid, this.poolSettings);
+        });
+    }
+
+    /**
+     * Stops the outbox sending through this publisher, shuts down the default publishAsync executor and closes all the
+     * connection pools.  After this, getPool throws IllegalStateException.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.outbox != null)
+            this.outbox.stopDraining(this);
+        synchronized (this) {
+            if (this.ownsExecutor && this.asyncExecutor != null) {
+                this.asyncExecutor.shutdown();
+                this.asyncExecutor = null;
+            }
+        }
+        this.pools.values().forEach(ProducerPool::close);
+        this.pools.clear();
+    }
+
 
     public static void main(String[] args) throws IOException {
         // Pull off the first arg and the remainder is our options
@@ -140,7 +751,7 @@ public class CIBusPublisher extends CIBusClient implements ICIBus {
         opts.addProperty("my_private_field", "sean_toner");
 
         String body = "{ \"test\": 100 }";
-        Optional<Connection> maybeCon = pub.sendMessage(body, pub.broker.getUrl(), opts);
+        Optional<Connection> maybeCon = pub.sendMessage(body, pub.getBrokerUrl(), opts);
         maybeCon.ifPresent(con -> {
             try {
                 con.close();
@@ -0,0 +1,207 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.utils.Timers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes requests and matches the replies to them, so that many requests can be in flight over one long-lived
+ * reply consumer instead of a new listener, connection and selector per request.
+ *
+ * Each request is stamped with a unique id, either as its JMSCorrelationID or as a message property, and the service
+ * on the other side is expected to copy it onto its reply.  When a reply with a pending id arrives, it is parsed and
+ * handled and the future of that request is completed with the result.
+ *
+ * Usage:
+ * <pre>
+ *     CorrelationEngine&lt;DefaultResult&gt; engine = new CorrelationEngine&lt;&gt;(pub, bl, CIBusListener.xunitMsgHandler());
+ *     engine.start("rhsm_qe='xunit_importer'", String.format("Consumer.%s.%s", bl.getClientID(), CIBusClient.TOPIC));
+ *     CompletableFuture&lt;MessageResult&lt;DefaultResult&gt;&gt; reply = engine.request(body, opts, 300000L);
+ * </pre>
+ */
+public class CorrelationEngine<T> implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(CorrelationEngine.class.getName());
+    public static final Integer DEFAULT_MAX_PENDING = 10000;
+
+    private final CIBusPublisher publisher;
+    private final CIBusListener<T> listener;
+    private final MessageHandler<T> handler;
+    private final String property;
+    private final Semaphore permits;
+    private final Map<String, Pending<T>> pending = new ConcurrentHashMap<>();
+    private final LongAdder unmatched = new LongAdder();
+    private Connection connection = null;
+
+    private static class Pending<T> {
+        final CompletableFuture<MessageResult<T>> future = new CompletableFuture<>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        volatile ScheduledFuture<?> timeout;
+    }
+
+    public CorrelationEngine(CIBusPublisher publisher, CIBusListener<T> listener, MessageHandler<T> handler) {
+        this(publisher, listener, handler, null, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param publisher publisher used to send the requests
+     * @param listener listener whose connection carries the replies
+     * @param handler handles each matched reply
+     * @param property name of the message property carrying the id, or null to use JMSCorrelationID
+     * @param maxPending most requests that may be awaiting a reply at once
+     */
+    public CorrelationEngine( CIBusPublisher publisher
+                            , CIBusListener<T> listener
+                            , MessageHandler<T> handler
+                            , String property
+                            , Integer maxPending) {
+        this.publisher = publisher;
+        this.listener = listener;
+        this.handler = handler;
+        this.property = property;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    /**
+     * Starts the reply consumer.  Must be called before the first request.
+     *
+     * @param selector JMS selector for the replies, or "" for none
+     * @param address queue the replies are consumed from
+     * @return the Connection of the reply consumer
+     */
+    public Optional<Connection> start(String selector, String address) {
+        Optional<Connection> conn = this.listener.tapIntoMessageBus(selector, this::onReply, address);
+        this.connection = conn.orElse(null);
+        return conn;
+    }
+
+    /**
+     * Publishes a request and returns a future for its reply
+     *
+     * The future is never completed exceptionally.  It completes with the handled reply, with TIMED_OUT if no reply
+     * came within timeout milliseconds, with SEND_FAIL if there are already maxPending requests in flight, or with
+     * the failed publish result if the request could not be sent.  A request the publisher stored in its outbox
+     * (a PENDING publish) keeps waiting for its reply until the timeout.
+     *
+     * @param body body of the request
+     * @param opts options for the request, which are copied and not modified
+     * @param timeout milliseconds to wait for the reply
+     * @return a future for the reply
+     */
+    public CompletableFuture<MessageResult<T>> request(String body, JMSMessageOptions opts, Long timeout) {
+        if (!this.permits.tryAcquire())
+            return CompletableFuture.completedFuture(failed(MessageResult.Status.SEND_FAIL, "Too many pending requests"));
+
+        String id = UUID.randomUUID().toString();
+        Pending<T> p = new Pending<>();
+        this.pending.put(id, p);
+        // Completing the future runs the caller's callbacks, which may block
+        p.timeout = Timers.scheduleBlocking(() -> {
+            this.finish(id, failed(MessageResult.Status.TIMED_OUT, "No reply within " + timeout + "ms"));
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        JMSMessageOptions stamped = new JMSMessageOptions(opts);
+        if (this.property == null)
+            stamped.setCorrelationID(id);
+        else
+            stamped.addProperty(this.property, id);
+
+        this.publisher.publishAsync(body, stamped).thenAccept(sent -> {
+            // PENDING means the request is in the outbox and will be sent once the broker is back, so a reply can
+            // still come before the timeout
+            MessageResult.Status status = sent.getStatus();
+            if (status != MessageResult.Status.SUCCESS && status != MessageResult.Status.PENDING)
+                this.finish(id, failed(status, sent.getErrorDetails()));
+        });
+        return p.future;
+    }
+
+    /**
+     * Completes the request with the id if it is still pending
+     */
+    private void finish(String id, MessageResult<T> result) {
+        Pending<T> p = this.pending.remove(id);
+        if (p == null || !p.done.compareAndSet(false, true))
+            return;
+        if (p.timeout != null)
+            p.timeout.cancel(false);
+        this.permits.release();
+        p.future.complete(result);
+    }
+
+    private void onReply(Message msg) {
+        String id;
+        try {
+            id = this.property == null ? msg.getJMSCorrelationID() : msg.getStringProperty(this.property);
+        } catch (JMSException e) {
+            logger.error(e.getMessage());
+            return;
+        }
+        if (id == null || !this.pending.containsKey(id)) {
+            this.unmatched.increment();
+            logger.debug(String.format("No pending request for reply with id %s", id));
+            return;
+        }
+
+        MessageResult<T> result;
+        try {
+            ObjectNode node = this.listener.parseMessage(msg);
+            result = this.handler.handle(node);
+        } catch (JMSException e) {
+            result = failed(MessageResult.Status.JMS_EXCEPTION, e.getMessage());
+        } catch (RuntimeException e) {
+            result = failed(MessageResult.Status.ERROR, e.getMessage());
+        }
+        this.finish(id, result);
+    }
+
+    private static <T> MessageResult<T> failed(MessageResult.Status status, String err) {
+        MessageResult<T> result = new MessageResult<>();
+        result.setStatus(status);
+        result.setErrorDetails(err);
+        return result;
+    }
+
+    /**
+     * @return number of requests awaiting a reply
+     */
+    public Integer getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * @return number of replies that arrived with an id that wasn't pending, eg because the request had timed out
+     */
+    public Long getUnmatchedCount() {
+        return this.unmatched.sum();
+    }
+
+    /**
+     * Closes the reply consumer and completes every pending request with ERROR
+     */
+    @Override
+    public void close() {
+        if (this.connection != null) {
+            try {
+                this.listener.disconnect(this.connection);
+            } catch (JMSException e) {
+                logger.error(e.getMessage());
+            }
+        }
+        this.pending.keySet().forEach(id -> this.finish(id, failed(MessageResult.Status.ERROR, "CorrelationEngine closed")));
+    }
+}
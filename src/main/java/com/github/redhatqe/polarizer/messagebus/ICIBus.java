@@ -1,15 +1,18 @@
 package com.github.redhatqe.polarizer.messagebus;
 
 import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import com.github.redhatqe.polarizer.messagebus.pool.FactoryCache;
 import com.github.redhatqe.polarizer.reporter.configuration.Serializer;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.ActiveMQSslConnectionFactory;
+import org.apache.activemq.transport.TransportListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.security.GeneralSecurityException;
 import java.util.Optional;
 
 /**
@@ -63,16 +66,67 @@ public interface ICIBus {
         }
     }
 
+    /**
+     * Logs when a connection's transport drops and comes back.  With the failover transport, the connection is
+     * re-established on its own, so this is the only sign a reconnect happened.
+     */
+    static TransportListener loggingTransportListener(String url) {
+        return new TransportListener() {
+            @Override
+            public void onCommand(Object command) {
+
+            }
+
+            @Override
+            public void onException(IOException error) {
+                logger.error(String.format("Transport to %s failed: %s", url, error.getMessage()));
+            }
+
+            @Override
+            public void transportInterupted() {
+                logger.warn(String.format("Connection to %s interrupted, reconnecting", url));
+            }
+
+            @Override
+            public void transportResumed() {
+                logger.info(String.format("Connection to %s resumed", url));
+            }
+        };
+    }
+
+    /**
+     * Returns a ConnectionFactory for the url, shared by every client connecting to it with the same credentials.  For
+     * ssl:// urls the keystore and truststore are read once and all connections share one SSLContext, until the store
+     * files change.  The tuning settings of the Broker are applied to the factory, and an InvalidConfigError is thrown
+     * if they are invalid.  The factory is shared, so callers must not change its settings.
+     *
+     * @param url url of the broker
+     * @param broker Broker with the credentials or tls settings
+     * @return the factory
+     */
     default ActiveMQConnectionFactory setupFactory(String url, Broker broker) {
+        return FactoryCache.get(url, broker, () -> this.createFactory(url, broker));
+    }
+
+    default ActiveMQConnectionFactory createFactory(String url, Broker broker) {
+        ActiveMQConnectionFactory factory;
         if(url.contains("ssl:")) {
-            ActiveMQSslConnectionFactory factory = new ActiveMQSslConnectionFactory(url);
-            this.authByKeys(factory, broker);
-            return factory;
+            try {
+                factory = FactoryCache.createSsl(url, broker);
+            } catch (IOException | GeneralSecurityException e) {
+                logger.error(String.format("Could not load the key or trust store for %s: %s", url, e.getMessage()));
+                ActiveMQSslConnectionFactory sslFactory = new ActiveMQSslConnectionFactory(url);
+                this.authByKeys(sslFactory, broker);
+                factory = sslFactory;
+            }
         }
         else {
-            ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(url);
+            factory = new ActiveMQConnectionFactory(url);
             this.authByPassword(factory, broker);
-            return factory;
         }
+        broker.getTuning().applyTo(factory);
+        if (url.startsWith("failover:"))
+            factory.setTransportListener(loggingTransportListener(url));
+        return factory;
     }
 }
@@ -9,6 +9,7 @@ import java.util.Map;
  */
 public class JMSMessageOptions {
     String jmsType = "";
+    String correlationID = "";
     Map<String, String> props = new HashMap<>();
     Integer mode = DeliveryMode.NON_PERSISTENT;
     Integer priority = 3;
@@ -23,6 +24,22 @@ public class JMSMessageOptions {
         this.jmsType = type;
     }
 
+    /**
+     * Create a new JMSMessageOptions with the same values (and a copy of the properties) of the instance passed in
+     */
+    public JMSMessageOptions(JMSMessageOptions orig) {
+        this.jmsType = orig.jmsType;
+        this.correlationID = orig.correlationID;
+        this.props = new HashMap<>(orig.props);
+        this.mode = orig.mode;
+        this.priority = orig.priority;
+        this.ttl = orig.ttl;
+    }
+
+    public void setCorrelationID(String id) {
+        this.correlationID = id;
+    }
+
     public void addProperty(String key, String val) {
         this.props.put(key, val);
     }
@@ -2,7 +2,44 @@ package com.github.redhatqe.polarizer.messagebus;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 @FunctionalInterface
 public interface MessageHandler<T> {
     MessageResult<T> handle(ObjectNode node);
+
+    /**
+     * The paths (see {@link PathExtractor}) of the message body this handler reads.  When the listener is in streaming
+     * mode, only these are parsed.  Empty means the handler needs the whole message.
+     *
+     * @return the paths this handler needs
+     */
+    default Set<String> requiredPaths() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Wraps a handler (usually a lambda) so that it declares the paths it needs
+     *
+     * @param handler the handler to wrap
+     * @param paths the paths the handler reads
+     * @return a MessageHandler that declares paths
+     */
+    static <T> MessageHandler<T> withPaths(MessageHandler<T> handler, String... paths) {
+        Set<String> declared = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(paths)));
+        return new MessageHandler<T>() {
+            @Override
+            public MessageResult<T> handle(ObjectNode node) {
+                return handler.handle(node);
+            }
+
+            @Override
+            public Set<String> requiredPaths() {
+                return declared;
+            }
+        };
+    }
 }
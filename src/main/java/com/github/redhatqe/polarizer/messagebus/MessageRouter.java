@@ -0,0 +1,112 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A dispatch table of MessageHandlers keyed on message properties, so that one listener with no selector can serve
+ * many interests (eg rhsm_qe='xunit_importer', rhsm_qe='testcase_importer' and a number of job-ids).
+ *
+ * Routes are indexed by property name and then by value.  Finding the handlers for a message costs one property
+ * lookup per distinct property name that has routes, no matter how many routes there are.  Routes can be added and
+ * removed at any time, from any thread, without reconnecting.
+ */
+public class MessageRouter<T> {
+    private final Map<String, Map<String, List<MessageHandler<T>>>> routes = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong(0);
+
+    /**
+     * Routes messages whose property has the given value to the handler
+     *
+     * @param property name of the message property, eg rhsm_qe or job-id
+     * @param value value the property must have
+     * @param handler handler for the matching messages
+     */
+    public void addRoute(String property, String value, MessageHandler<T> handler) {
+        // The add happens inside compute, so removeRoute can't drop the list between finding it and adding to it
+        this.routes.computeIfAbsent(property, p -> new ConcurrentHashMap<>())
+                .compute(value, (v, handlers) -> {
+                    List<MessageHandler<T>> list = handlers == null ? new CopyOnWriteArrayList<>() : handlers;
+                    list.add(handler);
+                    return list;
+                });
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * @return true if the route existed
+     */
+    public boolean removeRoute(String property, String value, MessageHandler<T> handler) {
+        Map<String, List<MessageHandler<T>>> byValue = this.routes.get(property);
+        if (byValue == null)
+            return false;
+        boolean[] removed = { false };
+        // Atomic with addRoute for the same value, so a handler added as the list empties isn't dropped with it
+        byValue.computeIfPresent(value, (v, handlers) -> {
+            removed[0] = handlers.remove(handler);
+            return handlers.isEmpty() ? null : handlers;
+        });
+        if (removed[0])
+            this.version.incrementAndGet();
+        return removed[0];
+    }
+
+    /**
+     * Finds the handlers for a message
+     *
+     * @param msg the message to route
+     * @return the handlers of every route the message matches, which may be empty
+     * @throws JMSException
+     */
+    public List<MessageHandler<T>> route(Message msg) throws JMSException {
+        List<MessageHandler<T>> matched = Collections.emptyList();
+        for (Map.Entry<String, Map<String, List<MessageHandler<T>>>> e : this.routes.entrySet()) {
+            Object prop = msg.getObjectProperty(e.getKey());
+            if (prop == null)
+                continue;
+            List<MessageHandler<T>> handlers = e.getValue().get(prop.toString());
+            if (handlers == null || handlers.isEmpty())
+                continue;
+            if (matched.isEmpty())
+                matched = handlers;
+            else {
+                matched = new ArrayList<>(matched);
+                matched.addAll(handlers);
+            }
+        }
+        return matched;
+    }
+
+    public boolean isEmpty() {
+        return this.routes.values().stream().allMatch(Map::isEmpty);
+    }
+
+    /**
+     * @return a number that changes every time a route is added or removed
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * @return the union of the paths every routed handler requires, or an empty Set if any handler needs the whole
+     *         message
+     */
+    public Set<String> requiredPaths() {
+        Set<String> paths = new HashSet<>();
+        for (Map<String, List<MessageHandler<T>>> byValue : this.routes.values()) {
+            for (List<MessageHandler<T>> handlers : byValue.values()) {
+                for (MessageHandler<T> h : handlers) {
+                    if (h.requiredPaths().isEmpty())
+                        return Collections.emptySet();
+                    paths.addAll(h.requiredPaths());
+                }
+            }
+        }
+        return paths;
+    }
+}
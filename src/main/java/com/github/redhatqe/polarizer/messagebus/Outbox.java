@@ -0,0 +1,257 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local append-only log of messages that could not be published, which are sent again once their broker is back
+ *
+ * Each broker url gets its own log (an {@link OutboxLog}) in a lane-* subdirectory, with its own segments,
+ * checkpoint and count of waiting messages.  So a broker that is down only holds back the messages bound for it:
+ * publishes to other urls neither queue up behind it nor wait for it to drain.  Records for one url are always sent
+ * in the order they were appended.
+ *
+ * The drainer started by {@link #drainTo(CIBusPublisher, BatchOptions, Long)} sends the records of every url in
+ * transacted batches, with the credentials of the matching Broker, and only moves a log's checkpoint past the records
+ * the broker accepted.  A batch stops at its first failure, so nothing is sent ahead of a record that has yet to go
+ * out.  A commit whose reply is lost is sent again, so delivery is at-least-once.
+ *
+ * Usage:
+ * <pre>
+ *     Outbox outbox = new Outbox(Paths.get(System.getProperty("user.home"), ".polarizer", "outbox"));
+ *     pub.setOutbox(outbox);   // failed publishes now go to the outbox and are retried in the background
+ * </pre>
+ */
+public class Outbox implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(Outbox.class.getName());
+    public static final Long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+    public static final Long DEFAULT_DRAIN_INTERVAL = 1000L;
+    private static final String LANE = "lane-";
+    // Holds the url of a lane, since the directory name is only derived from it
+    private static final String URL_FILE = "url";
+
+    private final Path dir;
+    private final Long maxSegmentBytes;
+    private final Boolean fsync;
+    private final Map<String, OutboxLog> lanes = new ConcurrentHashMap<>();
+    private ScheduledExecutorService drainer = null;
+    private CIBusPublisher drainingTo = null;
+
+    public Outbox(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES, false);
+    }
+
+    /**
+     * Opens (or creates) the outbox in dir, along with the logs of every url that already has one
+     *
+     * @param dir directory for the per-url logs
+     * @param maxSegmentBytes size at which a log starts a new segment
+     * @param fsync if true, each append is forced to disk before returning, so it survives a power loss
+     */
+    public Outbox(Path dir, Long maxSegmentBytes, Boolean fsync) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.fsync = fsync;
+        Files.createDirectories(dir);
+
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, LANE + "*")) {
+            for (Path lane : ds) {
+                Path urlFile = lane.resolve(URL_FILE);
+                if (!Files.isDirectory(lane) || !Files.exists(urlFile))
+                    continue;
+                String url = new String(Files.readAllBytes(urlFile), StandardCharsets.UTF_8).trim();
+                OutboxLog log = new OutboxLog(lane, maxSegmentBytes, fsync);
+                this.lanes.put(url, log);
+                if (log.getPending() > 0)
+                    logger.info(String.format("Outbox has %d messages waiting to be sent to %s", log.getPending(),
+                            url));
+            }
+        }
+    }
+
+    /**
+     * @return the log for the url, created on first use
+     */
+    private OutboxLog lane(String url) throws IOException {
+        try {
+            return this.lanes.computeIfAbsent(url, u -> {
+                Path lane = this.dir.resolve(LANE + UUID.nameUUIDFromBytes(u.getBytes(StandardCharsets.UTF_8)));
+                try {
+                    Files.createDirectories(lane);
+                    Files.write(lane.resolve(URL_FILE), u.getBytes(StandardCharsets.UTF_8));
+                    return new OutboxLog(lane, this.maxSegmentBytes, this.fsync);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Appends a message to the end of the log for its url
+     *
+     * @param record the message to send later
+     */
+    public void append(OutboxRecord record) throws IOException {
+        this.lane(record.url).append(record);
+    }
+
+    /**
+     * @return the number of messages waiting to be sent, to every url
+     */
+    public long getPending() {
+        long total = 0;
+        for (OutboxLog log : this.lanes.values())
+            total += log.getPending();
+        return total;
+    }
+
+    /**
+     * @return the number of messages waiting to be sent to url
+     */
+    public long getPending(String url) {
+        OutboxLog log = this.lanes.get(url);
+        return log == null ? 0 : log.getPending();
+    }
+
+    /**
+     * @return the urls that have a log, whether or not they have messages waiting
+     */
+    public List<String> getUrls() {
+        return new ArrayList<>(this.lanes.keySet());
+    }
+
+    /**
+     * Reads up to max of the oldest records waiting for url, without removing them
+     */
+    List<OutboxLog.Entry> peek(String url, int max) throws IOException {
+        OutboxLog log = this.lanes.get(url);
+        return log == null ? new ArrayList<>() : log.peek(max);
+    }
+
+    /**
+     * Starts a background thread that sends the waiting messages through the publisher every interval milliseconds.
+     * For each url, a run stops at the first message the broker doesn't accept, and tries again on the next run.
+     *
+     * @param publisher publisher to send through
+     * @param batch how to group the messages into transactions.  batchSize is also the most read per send.
+     * @param interval milliseconds between runs
+     */
+    public synchronized void drainTo(CIBusPublisher publisher, BatchOptions batch, Long interval) {
+        if (this.drainer != null)
+            return;
+        this.drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setName("polarizer-umb-outbox");
+            t.setDaemon(true);
+            return t;
+        });
+        this.drainingTo = publisher;
+        this.drainer.scheduleWithFixedDelay(() -> {
+            // An exception escaping the task would cancel every later run
+            try {
+                this.drain(publisher, batch);
+            } catch (RuntimeException e) {
+                logger.error(String.format("Draining the outbox in %s failed: %s", this.dir, e.getMessage()));
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the drainer if it sends through publisher, so the publisher can be closed.  Another drainer may be started
+     * afterwards with drainTo.
+     *
+     * @param publisher the publisher that is going away
+     */
+    public synchronized void stopDraining(CIBusPublisher publisher) {
+        if (this.drainer == null || this.drainingTo != publisher)
+            return;
+        this.drainer.shutdown();
+        this.drainer = null;
+        this.drainingTo = null;
+    }
+
+    /**
+     * Sends the waiting messages of every url, until each log is empty or a send to its url fails
+     *
+     * @return the number of messages sent
+     */
+    public long drain(CIBusPublisher publisher, BatchOptions batch) {
+        // Only the leading records a batch sent may count as sent, so keep it from sending past a failure
+        BatchOptions ordered = new BatchOptions(batch).setStopOnFailure(true);
+        long sent = 0;
+        for (Map.Entry<String, OutboxLog> lane : this.lanes.entrySet())
+            sent += this.drain(publisher, ordered, lane.getKey(), lane.getValue());
+        return sent;
+    }
+
+    private long drain(CIBusPublisher publisher, BatchOptions batch, String url, OutboxLog log) {
+        long sent = 0;
+        Broker broker = publisher.brokerFor(url);
+        try {
+            while (log.getPending() > 0) {
+                List<OutboxLog.Entry> entries = log.peek(batch.batchSize);
+                if (entries.isEmpty())
+                    break;
+                int n = entries.size();
+                List<String> bodies = new ArrayList<>(n);
+                List<JMSMessageOptions> opts = new ArrayList<>(n);
+                for (OutboxLog.Entry e : entries) {
+                    bodies.add(e.record.body);
+                    opts.add(e.record.toOptions());
+                }
+
+                List<MessageResult<String>> results = publisher.sendBatch(url, broker, bodies, opts, batch);
+                int ok = 0;
+                while (ok < results.size() && results.get(ok).getStatus() == MessageResult.Status.SUCCESS)
+                    ok++;
+                if (ok > 0)
+                    log.advance(entries.get(ok - 1), ok);
+                sent += ok;
+                if (ok < n) {
+                    logger.info(String.format("Outbox could not reach %s, %d messages still waiting", url,
+                            log.getPending()));
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.error(String.format("Could not read the outbox for %s in %s: %s", url, this.dir, e.getMessage()));
+        }
+        if (sent > 0)
+            logger.info(String.format("Sent %d messages from the outbox to %s", sent, url));
+        return sent;
+    }
+
+    /**
+     * Stops the drainer and closes every log.  Messages still waiting stay on disk for the next Outbox opened on the
+     * same directory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.drainer != null) {
+            this.drainer.shutdown();
+            this.drainer = null;
+            this.drainingTo = null;
+        }
+        for (OutboxLog log : this.lanes.values())
+            log.close();
+    }
+}
@@ -0,0 +1,266 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * The log of waiting messages for one broker url, kept in its own directory of the {@link Outbox}
+ *
+ * Records go into segment files named outbox-N.log, each one written as its length, a CRC32 of its bytes and the JSON
+ * of an {@link OutboxRecord}.  When a segment reaches maxSegmentBytes, a new one is started.  A checkpoint file holds
+ * the position of the oldest record not yet sent.  Segments the checkpoint has moved past are deleted.  A record cut
+ * short by a crash (a bad length or CRC) marks the end of the log, and is dropped along with anything after it when
+ * the log is reopened.
+ */
+class OutboxLog implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(OutboxLog.class.getName());
+    private static final String PREFIX = "outbox-";
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    // length and CRC
+    static final Integer HEADER = 8;
+
+    private final Path dir;
+    private final Long maxSegmentBytes;
+    private final Boolean fsync;
+    private FileChannel writer;
+    private long writeSegment;
+    private long readSegment;
+    private long readOffset;
+    private long pending = 0;
+
+    /**
+     * A record read from the log, with the position just past it
+     */
+    static class Entry {
+        final OutboxRecord record;
+        final long segment;
+        final long next;
+
+        Entry(OutboxRecord record, long segment, long next) {
+            this.record = record;
+            this.segment = segment;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Opens (or creates) the log in dir
+     *
+     * @param dir directory for the segment and checkpoint files
+     * @param maxSegmentBytes size at which a new segment is started
+     * @param fsync if true, each append is forced to disk before returning, so it survives a power loss
+     */
+    OutboxLog(Path dir, Long maxSegmentBytes, Boolean fsync) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.fsync = fsync;
+        Files.createDirectories(dir);
+
+        TreeMap<Long, Path> segments = this.segments();
+        this.readSegment = segments.isEmpty() ? 0 : segments.firstKey();
+        this.readOffset = 0;
+        Path cp = dir.resolve(CHECKPOINT);
+        if (Files.exists(cp)) {
+            String[] pos = new String(Files.readAllBytes(cp), StandardCharsets.UTF_8).trim().split(":");
+            this.readSegment = Long.parseLong(pos[0]);
+            this.readOffset = Long.parseLong(pos[1]);
+        }
+        this.writeSegment = segments.isEmpty() ? this.readSegment : Math.max(segments.lastKey(), this.readSegment);
+        this.pending = this.recover(segments);
+        this.writer = FileChannel.open(this.segmentPath(this.writeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Counts the records after the checkpoint, and cuts off a torn record at the end of the last segment
+     */
+    private long recover(TreeMap<Long, Path> segments) throws IOException {
+        long count = 0;
+        for (Long seq : segments.keySet()) {
+            if (seq < this.readSegment) {
+                Files.deleteIfExists(segments.get(seq));
+                continue;
+            }
+            long offset = seq == this.readSegment ? this.readOffset : 0;
+            Path seg = segments.get(seq);
+            try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long good = offset;
+                while (true) {
+                    long next = skip(ch, good);
+                    if (next < 0)
+                        break;
+                    good = next;
+                    count++;
+                }
+                if (good < ch.size()) {
+                    logger.warn(String.format("Dropping %d bytes of incomplete records from %s", ch.size() - good,
+                            seg));
+                    ch.truncate(good);
+                }
+            }
+        }
+        return count;
+    }
+
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> segs = new TreeMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                segs.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), p);
+            }
+        }
+        return segs;
+    }
+
+    Path segmentPath(long seq) {
+        return this.dir.resolve(PREFIX + seq + SUFFIX);
+    }
+
+    synchronized void append(OutboxRecord record) throws IOException {
+        byte[] json = Json.WRITER.writeValueAsBytes(record);
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + json.length);
+        buf.putInt(json.length).putInt((int) crc.getValue()).put(json);
+        buf.flip();
+
+        if (this.writer.size() > 0 && this.writer.size() + buf.remaining() > this.maxSegmentBytes)
+            this.roll();
+        while (buf.hasRemaining())
+            this.writer.write(buf);
+        if (this.fsync)
+            this.writer.force(false);
+        this.pending++;
+    }
+
+    private void roll() throws IOException {
+        this.writer.close();
+        this.writeSegment++;
+        this.writer = FileChannel.open(this.segmentPath(this.writeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    synchronized long getPending() {
+        return this.pending;
+    }
+
+    /**
+     * Reads up to max of the oldest records waiting to be sent, without removing them
+     */
+    synchronized List<Entry> peek(int max) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long seg = this.readSegment;
+        long offset = this.readOffset;
+        while (entries.size() < max && seg <= this.writeSegment) {
+            Path p = this.segmentPath(seg);
+            if (!Files.exists(p)) {
+                seg++;
+                offset = 0;
+                continue;
+            }
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                while (entries.size() < max) {
+                    byte[] json = read(ch, offset);
+                    if (json == null)
+                        break;
+                    offset += HEADER + json.length;
+                    OutboxRecord r = Json.readerFor(OutboxRecord.class).readValue(json);
+                    entries.add(new Entry(r, seg, offset));
+                }
+            }
+            if (entries.size() < max) {
+                seg++;
+                offset = 0;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Marks the records up to and including last as sent, and deletes the segments that are now fully sent
+     */
+    synchronized void advance(Entry last, int count) throws IOException {
+        for (long seq = this.readSegment; seq < last.segment; seq++)
+            Files.deleteIfExists(this.segmentPath(seq));
+        this.readSegment = last.segment;
+        this.readOffset = last.next;
+        this.pending -= count;
+
+        // Everything is sent, so start over with an empty segment rather than let the last one grow forever
+        if (this.pending == 0 && this.readSegment == this.writeSegment && this.readOffset > 0) {
+            this.roll();
+            Files.deleteIfExists(this.segmentPath(this.readSegment));
+            this.readSegment = this.writeSegment;
+            this.readOffset = 0;
+        }
+        this.writeCheckpoint();
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path tmp = this.dir.resolve(CHECKPOINT + ".tmp");
+        Files.write(tmp, String.format("%d:%d", this.readSegment, this.readOffset).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, this.dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the bytes of the record at offset, or null if there is no complete, intact record there
+     */
+    private static byte[] read(FileChannel ch, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (readFully(ch, header, offset) < HEADER)
+            return null;
+        header.flip();
+        int len = header.getInt();
+        int sum = header.getInt();
+        if (len < 0 || offset + HEADER + len > ch.size())
+            return null;
+        ByteBuffer body = ByteBuffer.allocate(len);
+        if (readFully(ch, body, offset + HEADER) < len)
+            return null;
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        return (int) crc.getValue() == sum ? body.array() : null;
+    }
+
+    /**
+     * @return the offset just past the record at offset, or -1 if there is no intact record there
+     */
+    private static long skip(FileChannel ch, long offset) throws IOException {
+        byte[] json = read(ch, offset);
+        return json == null ? -1 : offset + HEADER + json.length;
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, offset + total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.writer.close();
+    }
+}
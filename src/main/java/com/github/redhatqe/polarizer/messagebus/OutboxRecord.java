@@ -0,0 +1,67 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A message waiting in the {@link Outbox}, with everything needed to send it again
+ */
+public class OutboxRecord {
+    @JsonProperty
+    String url;
+    @JsonProperty
+    String body;
+    @JsonProperty
+    String jmsType = "";
+    @JsonProperty
+    String correlationID = "";
+    @JsonProperty
+    Map<String, String> props = new HashMap<>();
+    @JsonProperty
+    Integer mode;
+    @JsonProperty
+    Integer priority;
+    @JsonProperty
+    Long ttl;
+    @JsonProperty
+    Long created;
+
+    public OutboxRecord() {
+
+    }
+
+    public OutboxRecord(String url, String body, JMSMessageOptions opts) {
+        this.url = url;
+        this.body = body;
+        this.jmsType = opts.jmsType;
+        this.correlationID = opts.correlationID;
+        this.props = new HashMap<>(opts.props);
+        this.mode = opts.mode;
+        this.priority = opts.priority;
+        this.ttl = opts.ttl;
+        this.created = System.currentTimeMillis();
+    }
+
+    public JMSMessageOptions toOptions() {
+        JMSMessageOptions opts = new JMSMessageOptions(this.jmsType, new HashMap<>(this.props));
+        opts.correlationID = this.correlationID;
+        opts.mode = this.mode;
+        opts.priority = this.priority;
+        opts.ttl = this.ttl;
+        return opts;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Long getCreated() {
+        return created;
+    }
+}
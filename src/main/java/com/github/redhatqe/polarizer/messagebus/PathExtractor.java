@@ -0,0 +1,117 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pulls a given set of paths out of a JSON document by streaming over its tokens, and skips everything else.
+ *
+ * The result has the same shape as the full tree would, but only holds the requested paths, so a handler that looks
+ * at a few fields of a multi-megabyte message doesn't pay for building a tree of the whole thing.
+ *
+ * A path is a list of field names separated by dots.  A name ending with [] means every element of that array, eg
+ * "import-results[].status" is the status field of every element of the import-results array.  The value at the end
+ * of a path is kept whole, whatever it is.
+ */
+public class PathExtractor {
+    private static class Spec {
+        final Map<String, Spec> fields = new HashMap<>();
+        Spec elements = null;
+        boolean whole = false;
+    }
+
+    private final Spec root = new Spec();
+
+    /**
+     * @param paths the paths to keep.  If empty, the whole document is kept.
+     */
+    public PathExtractor(Collection<String> paths) {
+        if (paths.isEmpty())
+            this.root.whole = true;
+        for (String path : paths) {
+            Spec current = this.root;
+            for (String segment : path.split("\\.")) {
+                boolean array = segment.endsWith("[]");
+                String name = array ? segment.substring(0, segment.length() - 2) : segment;
+                if (name.isEmpty())
+                    throw new IllegalArgumentException(String.format("Empty field name in path %s", path));
+                current = current.fields.computeIfAbsent(name, n -> new Spec());
+                if (array) {
+                    if (current.elements == null)
+                        current.elements = new Spec();
+                    current = current.elements;
+                }
+            }
+            current.whole = true;
+        }
+    }
+
+    /**
+     * @param json the JSON text
+     * @return a tree holding only the requested paths, or null if the text is empty
+     * @throws IOException if the text isn't valid JSON
+     */
+    public JsonNode extract(String json) throws IOException {
+        try (JsonParser parser = Json.MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() == null)
+                return null;
+            return this.read(parser, this.root);
+        }
+    }
+
+    /**
+     * Reads the value the parser is on
+     *
+     * @return the value, or null if it is a container that doesn't hold anything that was asked for
+     */
+    private JsonNode read(JsonParser parser, Spec spec) throws IOException {
+        if (spec.whole)
+            return Json.MAPPER.readTree(parser);
+
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            if (spec.fields.isEmpty()) {
+                parser.skipChildren();
+                return null;
+            }
+            ObjectNode obj = Json.NODES.objectNode();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                Spec child = spec.fields.get(name);
+                if (child == null)
+                    parser.skipChildren();
+                else {
+                    JsonNode value = this.read(parser, child);
+                    if (value != null)
+                        obj.set(name, value);
+                }
+            }
+            return obj;
+        }
+        if (token == JsonToken.START_ARRAY) {
+            if (spec.elements == null) {
+                parser.skipChildren();
+                return null;
+            }
+            ArrayNode arr = Json.NODES.arrayNode();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                JsonNode value = this.read(parser, spec.elements);
+                if (value != null)
+                    arr.add(value);
+            }
+            return arr;
+        }
+        // A scalar where a container was expected.  It is cheap, so keep it and let the handler decide
+        return Json.MAPPER.readTree(parser);
+    }
+}
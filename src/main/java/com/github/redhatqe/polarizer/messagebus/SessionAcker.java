@@ -0,0 +1,198 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.utils.Timers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledges the messages of one Session in batches, once they have been handled
+ *
+ * Successfully handled messages are acked after batchSize of them, or once window milliseconds have passed since the
+ * last ack, whichever comes first.  In INDIVIDUAL mode a timer acks the messages handled once the window is up, even if
+ * no other message arrives.  In CLIENT mode an ack covers every message the Session has delivered, including one whose
+ * handler is still running, so it may only be sent from the Session's thread once a handler has finished: the window
+ * is checked when the next message is done, and an idle Session keeps its handled messages unacked until then or
+ * until {@link #close()}.
+ *
+ * When handling a message fails, the Session is recovered so that the broker redelivers every message it has not had
+ * an ack for.  This is at-least-once: in CLIENT mode, the messages handled since the last ack are redelivered along
+ * with the failed one.
+ *
+ * The listener built by CIBusListener.createListener claims the SessionAcker of the delivering thread and reports
+ * the outcome itself, possibly later from a WorkerStage thread.  For any other listener, a message counts as handled
+ * when onMessage returns, and as failed if it throws.
+ *
+ * A Session may only be recovered from the thread delivering its messages.  So when a WorkerStage thread reports a
+ * failure, the recover is handed back to the Session: it happens at the start of the next delivery, which is then
+ * redelivered along with the failed message and anything else not yet acked.  Only INDIVIDUAL acks may be reported
+ * from another thread, CIBusListener rejects the other modes with a WorkerStage.
+ *
+ * Call {@link #close()} before the Session is closed, so the messages handled since the last ack are acked.
+ */
+class SessionAcker {
+    private static Logger logger = LoggerFactory.getLogger(SessionAcker.class.getName());
+    private static final ThreadLocal<SessionAcker> current = new ThreadLocal<>();
+
+    private final Session session;
+    private final AckMode mode;
+    private final Integer batchSize;
+    private final Long window;
+    private final List<Message> pending = new ArrayList<>();
+    private Message last = null;
+    private int unflushed = 0;
+    private long lastAck = System.currentTimeMillis();
+    private boolean claimed = false;
+    private boolean recoverPending = false;
+    private ScheduledFuture<?> timer = null;
+
+    SessionAcker(Session session, AckMode mode, Integer batchSize, Long window) {
+        this.session = session;
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.window = window;
+        if (mode == AckMode.INDIVIDUAL && window > 0)
+            this.timer = Timers.scheduleBlockingAtFixedRate(this::flushIfDue, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called from a MessageListener's onMessage to take over reporting the outcome of the message being delivered
+     *
+     * @return the SessionAcker of the Session delivering on this thread, or null if there is none
+     */
+    static SessionAcker claim() {
+        SessionAcker acker = current.get();
+        if (acker != null)
+            acker.claimed = true;
+        return acker;
+    }
+
+    MessageListener wrap(MessageListener listener) {
+        return msg -> {
+            // A Session delivers one message at a time on one thread, so claimed needs no locking
+            this.claimed = false;
+            if (this.takeRecover()) {
+                // msg comes back with the rest of what was delivered since the last ack
+                this.recover();
+                return;
+            }
+            current.set(this);
+            try {
+                listener.onMessage(msg);
+                if (!this.claimed)
+                    this.done(msg, true);
+            } catch (RuntimeException e) {
+                logger.error(String.format("Handling message failed: %s", e.getMessage()));
+                this.done(msg, false);
+            } finally {
+                current.remove();
+            }
+        };
+    }
+
+    /**
+     * Records the outcome of handling a message
+     *
+     * @param msg the message
+     * @param ok true if it was handled, false to have it redelivered
+     */
+    synchronized void done(Message msg, boolean ok) {
+        if (!ok) {
+            if (current.get() == this)
+                this.recover();
+            else {
+                // Not on the Session's thread, so leave the recover to its next delivery
+                if (this.mode == AckMode.INDIVIDUAL)
+                    this.flush();
+                this.recoverPending = true;
+            }
+            return;
+        }
+        switch (this.mode) {
+            case CLIENT:
+                this.last = msg;
+                break;
+            case INDIVIDUAL:
+                this.pending.add(msg);
+                break;
+            default:
+                return;
+        }
+        int count = this.mode == AckMode.CLIENT ? ++this.unflushed : this.pending.size();
+        boolean due = this.window > 0 && System.currentTimeMillis() - this.lastAck >= this.window;
+        if (count >= this.batchSize || due)
+            this.flush();
+    }
+
+    private synchronized void flushIfDue() {
+        if (System.currentTimeMillis() - this.lastAck < this.window)
+            return;
+        try {
+            this.ack();
+        } catch (IllegalStateException e) {
+            // The session was closed
+            if (this.timer != null)
+                this.timer.cancel(false);
+        } catch (JMSException e) {
+            logger.error(String.format("Could not acknowledge messages: %s", e.getMessage()));
+        }
+    }
+
+    synchronized void flush() {
+        try {
+            this.ack();
+        } catch (JMSException e) {
+            logger.error(String.format("Could not acknowledge messages: %s", e.getMessage()));
+        }
+    }
+
+    private void ack() throws JMSException {
+        this.lastAck = System.currentTimeMillis();
+        if (this.last != null) {
+            Message m = this.last;
+            this.last = null;
+            this.unflushed = 0;
+            m.acknowledge();
+        }
+        while (!this.pending.isEmpty())
+            this.pending.remove(this.pending.size() - 1).acknowledge();
+    }
+
+    private synchronized boolean takeRecover() {
+        boolean pending = this.recoverPending;
+        this.recoverPending = false;
+        return pending;
+    }
+
+    private synchronized void recover() {
+        try {
+            // In INDIVIDUAL mode the handled ones can still be acked, so that only the failed one comes back
+            if (this.mode == AckMode.INDIVIDUAL)
+                this.ack();
+            this.last = null;
+            this.unflushed = 0;
+            this.session.recover();
+        } catch (JMSException e) {
+            logger.error(String.format("Could not recover session: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Stops the ack timer and acks what has been handled.  Must be called while the Session is still open.
+     */
+    synchronized void close() {
+        if (this.timer != null)
+            this.timer.cancel(false);
+        this.timer = null;
+        this.flush();
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+/**
+ * A handler that is given the body of a message already bound to a class, instead of an ObjectNode
+ *
+ * @param <P> class the JSON body of the message is bound to
+ * @param <T> type of the info in the MessageResult
+ */
+@FunctionalInterface
+public interface TypedMessageHandler<P, T> {
+    /**
+     * @param payload the body bound to P
+     * @param text the body as it was received, for handlers that pass it on
+     * @return the result of handling the message
+     */
+    MessageResult<T> handle(P payload, String text);
+}
@@ -0,0 +1,180 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded queue and pool of worker threads that sits between the JMS dispatch thread and the MessageHandler.
+ *
+ * The dispatch thread only has to enqueue the message, so a slow handler no longer stalls delivery from the broker
+ * until the queue is full.  What happens then is decided by the Policy.  Each worker has its own queue.  Tasks with
+ * a key (eg the JMSXGroupID) always go to the same worker, so tasks with the same key run in the order they were
+ * submitted.  Tasks without a key are spread round robin.
+ */
+public class WorkerStage {
+    private static Logger logger = LoggerFactory.getLogger(WorkerStage.class.getName());
+
+    public enum Policy {
+        BLOCK,          // The submitting thread waits for room, which in turn stops the broker from dispatching more
+        DROP_OLDEST,    // The oldest queued task is thrown away to make room
+        FAIL;           // submit throws RejectedExecutionException
+    }
+
+    private final List<BlockingQueue<Runnable>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final Policy policy;
+    private final AtomicInteger next = new AtomicInteger(0);
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder latencyTotal = new LongAdder();
+    private final AtomicLong latencyMax = new AtomicLong(0);
+
+    /**
+     * @param name prefix for the names of the worker threads
+     * @param workers number of worker threads
+     * @param capacity total number of tasks that may be queued, split evenly between the workers
+     * @param policy what to do when a worker's queue is full
+     */
+    public WorkerStage(String name, Integer workers, Integer capacity, Policy policy) {
+        if (workers < 1 || capacity < workers)
+            throw new IllegalArgumentException("Need at least 1 worker and at least 1 queue slot per worker");
+        this.policy = policy;
+        int perWorker = (capacity + workers - 1) / workers;
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Runnable> q = new ArrayBlockingQueue<>(perWorker);
+            Thread t = new Thread(() -> this.work(q), String.format("%s-worker-%d", name, i));
+            t.setDaemon(true);
+            this.queues.add(q);
+            this.threads.add(t);
+            t.start();
+        }
+    }
+
+    private void work(BlockingQueue<Runnable> q) {
+        while (this.running || !q.isEmpty()) {
+            Runnable task;
+            try {
+                task = q.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task == null)
+                continue;
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error(String.format("Task in worker stage failed: %s", t.getMessage()));
+            }
+            long elapsed = System.nanoTime() - start;
+            this.latencyTotal.add(elapsed);
+            this.latencyMax.accumulateAndGet(elapsed, Math::max);
+            this.completed.increment();
+        }
+    }
+
+    /**
+     * Queues a task
+     *
+     * @param key tasks with the same non-null key run on the same worker, in order
+     * @param task the work to do
+     * @throws RejectedExecutionException if the policy is FAIL and the queue is full, or the stage is shut down
+     */
+    public void submit(String key, Runnable task) {
+        if (!this.running)
+            throw new RejectedExecutionException("WorkerStage is shut down");
+        int idx = key == null
+                ? (this.next.getAndIncrement() & 0x7fffffff) % this.queues.size()
+                : (key.hashCode() & 0x7fffffff) % this.queues.size();
+        BlockingQueue<Runnable> q = this.queues.get(idx);
+        this.submitted.increment();
+        switch (this.policy) {
+            case BLOCK:
+                try {
+                    q.put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.rejected.increment();
+                    throw new RejectedExecutionException("Interrupted while waiting for room in the worker stage");
+                }
+                break;
+            case DROP_OLDEST:
+                while (!q.offer(task)) {
+                    if (q.poll() != null) {
+                        this.dropped.increment();
+                        logger.warn("Worker stage is full, dropped the oldest message");
+                    }
+                }
+                break;
+            case FAIL:
+                if (!q.offer(task)) {
+                    this.rejected.increment();
+                    throw new RejectedExecutionException("Worker stage is full");
+                }
+                break;
+        }
+    }
+
+    /**
+     * Stops taking new tasks.  Tasks already queued are still run.
+     */
+    public void shutdown() {
+        this.running = false;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return number of tasks waiting in all the queues
+     */
+    public Integer getQueueDepth() {
+        return this.queues.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    public Long getSubmitted() {
+        return this.submitted.sum();
+    }
+
+    public Long getCompleted() {
+        return this.completed.sum();
+    }
+
+    public Long getDropped() {
+        return this.dropped.sum();
+    }
+
+    public Long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return mean time in microseconds a task took to run, not counting time spent queued
+     */
+    public Double getMeanLatencyMicros() {
+        long n = this.completed.sum();
+        return n == 0 ? 0.0 : (this.latencyTotal.sum() / (double) n) / 1000.0;
+    }
+
+    /**
+     * @return longest time in microseconds a task took to run
+     */
+    public Long getMaxLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.latencyMax.get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The reply the XUnit importer sends once it has handled an import request.  Only the fields the handlers look at
+ * are bound, the rest are ignored.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class XUnitImportResult {
+    @JsonProperty
+    private String status;
+    @JsonProperty("testrun-url")
+    private String testrunUrl;
+    @JsonProperty
+    private String message;
+    @JsonProperty("import-results")
+    private List<SuiteResult> importResults;
+
+    public XUnitImportResult() {
+
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getTestrunUrl() {
+        return testrunUrl;
+    }
+
+    public void setTestrunUrl(String testrunUrl) {
+        this.testrunUrl = testrunUrl;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public List<SuiteResult> getImportResults() {
+        return importResults;
+    }
+
+    public void setImportResults(List<SuiteResult> importResults) {
+        this.importResults = importResults;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SuiteResult {
+        @JsonProperty
+        private String status;
+        @JsonProperty("suite-name")
+        private String suiteName;
+
+        public SuiteResult() {
+
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public String getSuiteName() {
+            return suiteName;
+        }
+
+        public void setSuiteName(String suiteName) {
+            this.suiteName = suiteName;
+        }
+    }
+
+    /**
+     * @return names of the suites whose status is not passed
+     */
+    public List<String> failedSuites() {
+        List<String> suites = new ArrayList<>();
+        if (this.importResults == null)
+            return suites;
+        for (SuiteResult r : this.importResults) {
+            if (r.status != null && !r.status.equals("passed") && r.suiteName != null)
+                suites.add(r.suiteName);
+        }
+        return suites;
+    }
+}
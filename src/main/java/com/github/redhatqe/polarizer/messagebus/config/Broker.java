@@ -1,6 +1,7 @@
 package com.github.redhatqe.polarizer.messagebus.config;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.github.redhatqe.polarizer.reporter.configuration.data.MessageOpts;
 import com.github.redhatqe.polarizer.reporter.configuration.data.TLSClient;
@@ -19,6 +20,30 @@ public class Broker {
     MessageOpts messages;
     @JsonProperty
     TLSClient tls;
+    // weight and tuning are only written out when they are set, so a config that doesn't use them is saved as before
+    @JsonProperty
+    @JsonInclude(value = JsonInclude.Include.CUSTOM, valueFilter = DefaultWeight.class)
+    Integer weight = 1;
+    @JsonProperty
+    @JsonInclude(value = JsonInclude.Include.CUSTOM, valueFilter = UnsetTuning.class)
+    TuningOpts tuning = new TuningOpts();
+
+    /**
+     * Jackson leaves out a value this filter equals
+     */
+    static class DefaultWeight {
+        @Override
+        public boolean equals(Object weight) {
+            return weight == null || weight.equals(1);
+        }
+    }
+
+    static class UnsetTuning {
+        @Override
+        public boolean equals(Object tuning) {
+            return tuning == null || ((TuningOpts) tuning).isUnset();
+        }
+    }
 
     public Broker(String url, String u, String pw, Long to, Integer nummsgs, TLSClient tls) {
         this.url = url;
@@ -46,6 +71,8 @@ public class Broker {
         this.password = orig.getPassword();
         this.messages = new MessageOpts(orig.getMessageTimeout(), orig.getMessageMax());
         this.tls = new TLSClient(tls);
+        this.weight = orig.getWeight();
+        this.tuning = new TuningOpts(orig.getTuning());
     }
 
     public String getUrl() {
@@ -72,6 +99,29 @@ public class Broker {
         this.password = password;
     }
 
+    public Integer getWeight() {
+        return weight;
+    }
+
+    /**
+     * Share of the messages this broker gets relative to the others when publishing with the WEIGHTED strategy
+     *
+     * @param weight relative weight, must be at least 1
+     */
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+
+    public TuningOpts getTuning() {
+        if (this.tuning == null)
+            this.tuning = new TuningOpts();
+        return this.tuning;
+    }
+
+    public void setTuning(TuningOpts tuning) {
+        this.tuning = tuning;
+    }
+
     public MessageOpts getMessages() { return this.messages; }
 
     public void setMessages(MessageOpts opts) { this.messages = opts; }
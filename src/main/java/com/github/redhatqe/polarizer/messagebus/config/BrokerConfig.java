@@ -7,7 +7,9 @@ import com.github.redhatqe.polarizer.reporter.configuration.Serializer;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -23,6 +25,8 @@ public class BrokerConfig {
     private Map<String, Broker> brokers;
     @JsonProperty
     private String defaultBroker;
+    @JsonProperty
+    private FailoverOpts failover;
 
     // ==========================================================================
     // 2. Add all fields not belonging to the configuration here
@@ -45,6 +49,7 @@ public class BrokerConfig {
     public BrokerConfig() {
         this.brokers = new HashMap<>();
         this.defaultBroker = "ci";
+        this.failover = new FailoverOpts();
     }
 
     /**
@@ -54,6 +59,7 @@ public class BrokerConfig {
         this();
         cfg.getBrokers().forEach((k, v) -> this.brokers.put(k, new Broker(v)));
         this.defaultBroker = cfg.defaultBroker;
+        this.failover = new FailoverOpts(cfg.getFailover());
     }
 
     //=============================================================================
@@ -75,6 +81,14 @@ public class BrokerConfig {
         this.defaultBroker = def;
     }
 
+    public FailoverOpts getFailover() {
+        return this.failover == null ? new FailoverOpts() : this.failover;
+    }
+
+    public void setFailover(FailoverOpts failover) {
+        this.failover = failover;
+    }
+
     //=============================================================================
     // 5. Define any other functions
     //=============================================================================
@@ -82,6 +96,34 @@ public class BrokerConfig {
         this.brokers.put(name, b);
     }
 
+    /**
+     * Gets the url clients should connect to.  If failover is enabled, this is a failover: url over the failover
+     * brokers, otherwise it is the url of the default broker.
+     *
+     * @return the url to connect to
+     */
+    @JsonIgnore
+    public String getConnectUrl() {
+        FailoverOpts fo = this.getFailover();
+        String defaultUrl = this.brokers.get(this.defaultBroker).getUrl();
+        if (!fo.getEnabled() || defaultUrl.startsWith("failover:"))
+            return defaultUrl;
+
+        List<String> names = new ArrayList<>(fo.getBrokers());
+        if (names.isEmpty()) {
+            names.add(this.defaultBroker);
+            this.brokers.keySet().stream().filter(n -> !n.equals(this.defaultBroker)).sorted().forEach(names::add);
+        }
+        List<String> urls = new ArrayList<>();
+        for (String name : names) {
+            Broker b = this.brokers.get(name);
+            if (b == null)
+                throw new IllegalArgumentException(String.format("No broker named %s for failover", name));
+            urls.add(b.getUrl());
+        }
+        return fo.toUrl(urls);
+    }
+
     public static String getDefaultConfigPath() {
         return Paths.get(System.getProperty("user.home"), configBasePath, defaultConfigFileName).toString();
     }
@@ -0,0 +1,169 @@
+package com.github.redhatqe.polarizer.messagebus.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for connecting through ActiveMQ's failover transport across several of the configured brokers.  The
+ * failover transport reconnects with backoff when the connection drops, and re-creates the sessions, consumers and
+ * producers of the connection on the broker it reconnects to.
+ *
+ * Example yaml:
+ *
+ * failover:
+ *   enabled: true
+ *   brokers: [ci, ci-backup]
+ *   maxReconnectDelay: 30000
+ *   timeout: 10000
+ *   warmStandby: true
+ */
+public class FailoverOpts {
+    @JsonProperty
+    private Boolean enabled = false;
+    @JsonProperty
+    private List<String> brokers = new ArrayList<>();
+    @JsonProperty
+    private Long initialReconnectDelay = 100L;
+    @JsonProperty
+    private Long maxReconnectDelay = 30000L;
+    @JsonProperty
+    private Double backOffMultiplier = 2.0;
+    @JsonProperty
+    private Integer maxReconnectAttempts = -1;
+    @JsonProperty
+    private Long timeout = DEFAULT_TIMEOUT;
+    @JsonProperty
+    private Boolean warmStandby = false;
+    @JsonProperty
+    private Boolean priorityBackup = true;
+    @JsonIgnore
+    public static final Long DEFAULT_TIMEOUT = 10000L;
+
+    public FailoverOpts() {
+
+    }
+
+    public FailoverOpts(FailoverOpts orig) {
+        this.enabled = orig.enabled;
+        this.brokers = new ArrayList<>(orig.brokers);
+        this.initialReconnectDelay = orig.initialReconnectDelay;
+        this.maxReconnectDelay = orig.maxReconnectDelay;
+        this.backOffMultiplier = orig.backOffMultiplier;
+        this.maxReconnectAttempts = orig.maxReconnectAttempts;
+        this.timeout = orig.timeout;
+        this.warmStandby = orig.warmStandby;
+        this.priorityBackup = orig.priorityBackup;
+    }
+
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return names of the brokers to fail over between, in order of preference.  Empty means the default broker
+     *         followed by all the others.
+     */
+    public List<String> getBrokers() {
+        return brokers;
+    }
+
+    public void setBrokers(List<String> brokers) {
+        this.brokers = brokers;
+    }
+
+    public Long getInitialReconnectDelay() {
+        return initialReconnectDelay;
+    }
+
+    public void setInitialReconnectDelay(Long initialReconnectDelay) {
+        this.initialReconnectDelay = initialReconnectDelay;
+    }
+
+    public Long getMaxReconnectDelay() {
+        return maxReconnectDelay;
+    }
+
+    public void setMaxReconnectDelay(Long maxReconnectDelay) {
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    public Double getBackOffMultiplier() {
+        return backOffMultiplier;
+    }
+
+    public void setBackOffMultiplier(Double backOffMultiplier) {
+        this.backOffMultiplier = backOffMultiplier;
+    }
+
+    /**
+     * @return how many times to try reconnecting before giving up, -1 for forever
+     */
+    public Integer getMaxReconnectAttempts() {
+        return maxReconnectAttempts;
+    }
+
+    public void setMaxReconnectAttempts(Integer maxReconnectAttempts) {
+        this.maxReconnectAttempts = maxReconnectAttempts;
+    }
+
+    /**
+     * @return how many milliseconds a send waits for a broker to reconnect to before it fails, -1 for forever.  Since
+     *         maxReconnectAttempts defaults to forever, this is what stops a send from blocking for good while every
+     *         broker is down.
+     */
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return whether to keep a connection open to the next broker in the list, so switching over skips the handshake
+     */
+    public Boolean getWarmStandby() {
+        return warmStandby;
+    }
+
+    public void setWarmStandby(Boolean warmStandby) {
+        this.warmStandby = warmStandby;
+    }
+
+    /**
+     * @return whether to move back to the first broker in the list once it is reachable again
+     */
+    public Boolean getPriorityBackup() {
+        return priorityBackup;
+    }
+
+    public void setPriorityBackup(Boolean priorityBackup) {
+        this.priorityBackup = priorityBackup;
+    }
+
+    /**
+     * Builds the failover url for the given broker urls
+     *
+     * @param urls urls of the brokers in order of preference
+     * @return a failover: url
+     */
+    @JsonIgnore
+    public String toUrl(List<String> urls) {
+        String opts = String.format("randomize=false&initialReconnectDelay=%d&maxReconnectDelay=%d" +
+                        "&useExponentialBackOff=true&backOffMultiplier=%s&maxReconnectAttempts=%d&timeout=%d",
+                this.initialReconnectDelay, this.maxReconnectDelay, this.backOffMultiplier, this.maxReconnectAttempts,
+                this.timeout);
+        if (this.warmStandby)
+            opts += "&backup=true&backupPoolSize=1";
+        if (this.priorityBackup)
+            opts += "&priorityBackup=true";
+        return String.format("failover:(%s)?%s", String.join(",", urls), opts);
+    }
+}
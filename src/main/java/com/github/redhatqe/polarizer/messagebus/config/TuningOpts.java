@@ -0,0 +1,269 @@
+package com.github.redhatqe.polarizer.messagebus.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.redhatqe.polarizer.messagebus.exceptions.InvalidConfigError;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQPrefetchPolicy;
+
+/**
+ * ActiveMQ performance settings for a Broker.  Any setting left out keeps the ActiveMQ default, unless a profile is
+ * chosen, in which case the profile fills in the settings that were left out.
+ *
+ * Profiles:
+ * - throughput: large prefetch, batched (optimized) acks, async sends and acks, a 1MB producer window.  Best for bulk
+ *   publishing and draining a backlog.  Async sends can lose messages if the connection drops before the broker
+ *   receives them.
+ * - latency: prefetch of 1, messages delivered on the transport thread, every ack and send synchronous.  Best when
+ *   each message should be handled as soon as it arrives.
+ *
+ * Example yaml:
+ *
+ * tuning:
+ *   profile: throughput
+ *   prefetch: 500
+ */
+public class TuningOpts {
+    public static final String THROUGHPUT = "throughput";
+    public static final String LATENCY = "latency";
+    public static final Integer MAX_PREFETCH = Short.MAX_VALUE - 1;
+
+    @JsonProperty
+    private String profile;
+    @JsonProperty
+    private Integer prefetch;
+    @JsonProperty
+    private Boolean optimizeAcknowledge;
+    @JsonProperty
+    private Long optimizeAcknowledgeTimeOut;
+    @JsonProperty
+    private Boolean useAsyncSend;
+    @JsonProperty
+    private Boolean dispatchAsync;
+    @JsonProperty
+    private Boolean useCompression;
+    @JsonProperty
+    private Boolean alwaysSessionAsync;
+    @JsonProperty
+    private Boolean sendAcksAsync;
+    @JsonProperty
+    private Integer producerWindowSize;
+    @JsonProperty
+    private Boolean copyMessageOnSend;
+
+    public TuningOpts() {
+
+    }
+
+    public TuningOpts(TuningOpts orig) {
+        this.profile = orig.profile;
+        this.prefetch = orig.prefetch;
+        this.optimizeAcknowledge = orig.optimizeAcknowledge;
+        this.optimizeAcknowledgeTimeOut = orig.optimizeAcknowledgeTimeOut;
+        this.useAsyncSend = orig.useAsyncSend;
+        this.dispatchAsync = orig.dispatchAsync;
+        this.useCompression = orig.useCompression;
+        this.alwaysSessionAsync = orig.alwaysSessionAsync;
+        this.sendAcksAsync = orig.sendAcksAsync;
+        this.producerWindowSize = orig.producerWindowSize;
+        this.copyMessageOnSend = orig.copyMessageOnSend;
+    }
+
+    public static TuningOpts throughput() {
+        TuningOpts t = new TuningOpts();
+        t.prefetch = 1000;
+        t.optimizeAcknowledge = true;
+        t.optimizeAcknowledgeTimeOut = 300L;
+        t.useAsyncSend = true;
+        t.dispatchAsync = true;
+        t.useCompression = false;
+        t.alwaysSessionAsync = true;
+        t.sendAcksAsync = true;
+        t.producerWindowSize = 1024 * 1024;
+        t.copyMessageOnSend = false;
+        return t;
+    }
+
+    public static TuningOpts latency() {
+        TuningOpts t = new TuningOpts();
+        t.prefetch = 1;
+        t.optimizeAcknowledge = false;
+        t.useAsyncSend = false;
+        t.dispatchAsync = false;
+        t.useCompression = false;
+        t.alwaysSessionAsync = false;
+        t.sendAcksAsync = false;
+        t.copyMessageOnSend = false;
+        return t;
+    }
+
+    /**
+     * @return true if nothing is set, so every setting keeps the ActiveMQ default
+     */
+    @JsonIgnore
+    public boolean isUnset() {
+        return profile == null && prefetch == null && optimizeAcknowledge == null
+                && optimizeAcknowledgeTimeOut == null && useAsyncSend == null && dispatchAsync == null
+                && useCompression == null && alwaysSessionAsync == null && sendAcksAsync == null
+                && producerWindowSize == null && copyMessageOnSend == null;
+    }
+
+    /**
+     * @return these settings with the ones left out taken from the profile
+     */
+    @JsonIgnore
+    public TuningOpts resolve() {
+        this.validate();
+        if (this.profile == null)
+            return new TuningOpts(this);
+        TuningOpts base = this.profile.equals(THROUGHPUT) ? throughput() : latency();
+        base.profile = this.profile;
+        if (this.prefetch != null) base.prefetch = this.prefetch;
+        if (this.optimizeAcknowledge != null) base.optimizeAcknowledge = this.optimizeAcknowledge;
+        if (this.optimizeAcknowledgeTimeOut != null) base.optimizeAcknowledgeTimeOut = this.optimizeAcknowledgeTimeOut;
+        if (this.useAsyncSend != null) base.useAsyncSend = this.useAsyncSend;
+        if (this.dispatchAsync != null) base.dispatchAsync = this.dispatchAsync;
+        if (this.useCompression != null) base.useCompression = this.useCompression;
+        if (this.alwaysSessionAsync != null) base.alwaysSessionAsync = this.alwaysSessionAsync;
+        if (this.sendAcksAsync != null) base.sendAcksAsync = this.sendAcksAsync;
+        if (this.producerWindowSize != null) base.producerWindowSize = this.producerWindowSize;
+        if (this.copyMessageOnSend != null) base.copyMessageOnSend = this.copyMessageOnSend;
+        return base;
+    }
+
+    /**
+     * @throws InvalidConfigError if a setting is out of range or the profile is unknown
+     */
+    public void validate() {
+        if (this.profile != null && !this.profile.equals(THROUGHPUT) && !this.profile.equals(LATENCY))
+            throw new InvalidConfigError(String.format("Unknown tuning profile %s, must be %s or %s",
+                    this.profile, THROUGHPUT, LATENCY));
+        if (this.prefetch != null && (this.prefetch < 0 || this.prefetch > MAX_PREFETCH))
+            throw new InvalidConfigError(String.format("prefetch must be between 0 and %d, was %d",
+                    MAX_PREFETCH, this.prefetch));
+        if (this.optimizeAcknowledgeTimeOut != null && this.optimizeAcknowledgeTimeOut < 0)
+            throw new InvalidConfigError("optimizeAcknowledgeTimeOut can't be negative");
+        if (this.producerWindowSize != null && this.producerWindowSize < 0)
+            throw new InvalidConfigError("producerWindowSize can't be negative");
+    }
+
+    /**
+     * Validates these settings and sets them on the factory, filling in the ones left out from the profile
+     *
+     * @param factory factory to configure
+     */
+    public void applyTo(ActiveMQConnectionFactory factory) {
+        TuningOpts t = this.resolve();
+        if (t.prefetch != null) {
+            ActiveMQPrefetchPolicy policy = new ActiveMQPrefetchPolicy();
+            policy.setAll(t.prefetch);
+            factory.setPrefetchPolicy(policy);
+        }
+        if (t.optimizeAcknowledge != null) factory.setOptimizeAcknowledge(t.optimizeAcknowledge);
+        if (t.optimizeAcknowledgeTimeOut != null) factory.setOptimizeAcknowledgeTimeOut(t.optimizeAcknowledgeTimeOut);
+        if (t.useAsyncSend != null) factory.setUseAsyncSend(t.useAsyncSend);
+        if (t.dispatchAsync != null) factory.setDispatchAsync(t.dispatchAsync);
+        if (t.useCompression != null) factory.setUseCompression(t.useCompression);
+        if (t.alwaysSessionAsync != null) factory.setAlwaysSessionAsync(t.alwaysSessionAsync);
+        if (t.sendAcksAsync != null) factory.setSendAcksAsync(t.sendAcksAsync);
+        if (t.producerWindowSize != null) factory.setProducerWindowSize(t.producerWindowSize);
+        if (t.copyMessageOnSend != null) factory.setCopyMessageOnSend(t.copyMessageOnSend);
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    public Integer getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(Integer prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public Boolean getOptimizeAcknowledge() {
+        return optimizeAcknowledge;
+    }
+
+    public void setOptimizeAcknowledge(Boolean optimizeAcknowledge) {
+        this.optimizeAcknowledge = optimizeAcknowledge;
+    }
+
+    public Long getOptimizeAcknowledgeTimeOut() {
+        return optimizeAcknowledgeTimeOut;
+    }
+
+    public void setOptimizeAcknowledgeTimeOut(Long optimizeAcknowledgeTimeOut) {
+        this.optimizeAcknowledgeTimeOut = optimizeAcknowledgeTimeOut;
+    }
+
+    public Boolean getUseAsyncSend() {
+        return useAsyncSend;
+    }
+
+    public void setUseAsyncSend(Boolean useAsyncSend) {
+        this.useAsyncSend = useAsyncSend;
+    }
+
+    public Boolean getDispatchAsync() {
+        return dispatchAsync;
+    }
+
+    public void setDispatchAsync(Boolean dispatchAsync) {
+        this.dispatchAsync = dispatchAsync;
+    }
+
+    public Boolean getUseCompression() {
+        return useCompression;
+    }
+
+    public void setUseCompression(Boolean useCompression) {
+        this.useCompression = useCompression;
+    }
+
+    public Boolean getAlwaysSessionAsync() {
+        return alwaysSessionAsync;
+    }
+
+    public void setAlwaysSessionAsync(Boolean alwaysSessionAsync) {
+        this.alwaysSessionAsync = alwaysSessionAsync;
+    }
+
+    public Boolean getSendAcksAsync() {
+        return sendAcksAsync;
+    }
+
+    public void setSendAcksAsync(Boolean sendAcksAsync) {
+        this.sendAcksAsync = sendAcksAsync;
+    }
+
+    public Integer getProducerWindowSize() {
+        return producerWindowSize;
+    }
+
+    public void setProducerWindowSize(Integer producerWindowSize) {
+        this.producerWindowSize = producerWindowSize;
+    }
+
+    public Boolean getCopyMessageOnSend() {
+        return copyMessageOnSend;
+    }
+
+    public void setCopyMessageOnSend(Boolean copyMessageOnSend) {
+        this.copyMessageOnSend = copyMessageOnSend;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("profile=%s,prefetch=%s,optimizeAcknowledge=%s,optimizeAcknowledgeTimeOut=%s," +
+                        "useAsyncSend=%s,dispatchAsync=%s,useCompression=%s,alwaysSessionAsync=%s," +
+                        "sendAcksAsync=%s,producerWindowSize=%s,copyMessageOnSend=%s",
+                profile, prefetch, optimizeAcknowledge, optimizeAcknowledgeTimeOut, useAsyncSend, dispatchAsync,
+                useCompression, alwaysSessionAsync, sendAcksAsync, producerWindowSize, copyMessageOnSend);
+    }
+}
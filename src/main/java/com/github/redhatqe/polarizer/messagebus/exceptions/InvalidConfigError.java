@@ -0,0 +1,7 @@
+package com.github.redhatqe.polarizer.messagebus.exceptions;
+
+public class InvalidConfigError extends Error {
+    public InvalidConfigError(String err) {
+        super(err);
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serves the metrics at http://host:port/metrics as plain text, one "name value" per line, so they can be scraped
+ */
+public class HttpExporter implements MetricsExporter {
+    private static Logger logger = LoggerFactory.getLogger(HttpExporter.class.getName());
+
+    private final Integer port;
+    private HttpServer server = null;
+
+    public HttpExporter(Integer port) {
+        this.port = port;
+    }
+
+    @Override
+    public void start(MetricsRegistry registry) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(this.port), 0);
+        this.server.createContext("/metrics", exchange -> {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Number> e : registry.snapshot().entrySet())
+                sb.append(e.getKey().replace('.', '_')).append(' ').append(e.getValue()).append('\n');
+            byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        this.server.start();
+        logger.info(String.format("Metrics available at http://localhost:%d/metrics", this.port));
+    }
+
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes every metric as a read-only attribute of one MBean, by default
+ * com.github.redhatqe.polarizer:type=MessageBusMetrics
+ */
+public class JmxExporter implements MetricsExporter {
+    private static Logger logger = LoggerFactory.getLogger(JmxExporter.class.getName());
+    public static final String DEFAULT_NAME = "com.github.redhatqe.polarizer:type=MessageBusMetrics";
+
+    private final String name;
+    private ObjectName registered = null;
+
+    public JmxExporter() {
+        this(DEFAULT_NAME);
+    }
+
+    public JmxExporter(String name) {
+        this.name = name;
+    }
+
+    static class RegistryMBean implements DynamicMBean {
+        private final MetricsRegistry registry;
+
+        RegistryMBean(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number n = this.registry.snapshot().get(attribute);
+            if (n == null)
+                throw new AttributeNotFoundException(attribute);
+            return n.doubleValue();
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = this.registry.snapshot();
+            AttributeList list = new AttributeList();
+            for (String a : attributes)
+                if (values.containsKey(a))
+                    list.add(new Attribute(a, values.get(a).doubleValue()));
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // Metrics are created as they are first used, so build the list of attributes fresh every time
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String key : this.registry.snapshot().keySet())
+                attrs.add(new MBeanAttributeInfo(key, "double", key, true, false, false));
+            return new MBeanInfo(RegistryMBean.class.getName(), "polarizer-umb metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    @Override
+    public void start(MetricsRegistry registry) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName(this.name);
+        server.registerMBean(new RegistryMBean(registry), on);
+        this.registered = on;
+        logger.info(String.format("Metrics available over JMX as %s", this.name));
+    }
+
+    @Override
+    public void close() {
+        if (this.registered == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registered);
+        } catch (Exception e) {
+            logger.warn(e.getMessage());
+        }
+        this.registered = null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values (eg latencies in microseconds), in the style of HdrHistogram
+ *
+ * Values below 128 get a bucket each.  Above that, every power of two range is split into 64 buckets, so any value is
+ * reported to within 1/64th (about 1.6%) of what was recorded.  All the buckets are allocated up front, so recording a
+ * value allocates nothing and is a few atomic increments.  Reading percentiles while values are being recorded is
+ * safe, but gives an approximate answer.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Direct buckets for 0..127, then 64 buckets for each power of two from 2^7 up to 2^63
+    private static final int BUCKETS = 2 * SUB_COUNT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    static long lowestOf(int index) {
+        if (index < 2 * SUB_COUNT)
+            return index;
+        int shift = index / SUB_COUNT - 1;
+        return ((long) (index % SUB_COUNT) + SUB_COUNT) << shift;
+    }
+
+    /**
+     * @param value value to record.  Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        this.counts.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long m = this.max.get();
+        while (value > m && !this.max.compareAndSet(m, value))
+            m = this.max.get();
+    }
+
+    /**
+     * Records the time since start
+     *
+     * @param startNanos a value from System.nanoTime()
+     */
+    public void recordSinceNanos(long startNanos) {
+        this.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long n = this.count.get();
+        return n == 0 ? 0.0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the lowest value of the bucket holding the given percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = this.count.get();
+        if (n == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target)
+                return Math.min(lowestOf(i), this.max.get());
+        }
+        return this.max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            this.counts.set(i, 0);
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and tracks their rate per second, as a one minute moving average and as a mean since creation (or
+ * the last reset)
+ *
+ * The moving average is updated by {@link #tick()}, which the MetricsRegistry calls every TICK_SECONDS.
+ */
+public class Meter {
+    public static final Integer TICK_SECONDS = 5;
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private volatile long start = System.nanoTime();
+    private volatile double rate = 0.0;
+    private volatile boolean initialized = false;
+
+    public void mark() {
+        this.count.increment();
+        this.uncounted.increment();
+    }
+
+    synchronized void tick() {
+        double instant = (double) this.uncounted.sumThenReset() / TICK_SECONDS;
+        if (this.initialized)
+            this.rate += ALPHA * (instant - this.rate);
+        else {
+            this.rate = instant;
+            this.initialized = true;
+        }
+    }
+
+    /**
+     * Sets the count back to zero and starts the rates over, as if the meter had just been created
+     */
+    public synchronized void reset() {
+        this.count.reset();
+        this.uncounted.reset();
+        this.rate = 0.0;
+        this.initialized = false;
+        this.start = System.nanoTime();
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public double getOneMinuteRate() {
+        return this.rate;
+    }
+
+    public double getMeanRate() {
+        double secs = (System.nanoTime() - this.start) / 1e9;
+        return secs <= 0 ? 0.0 : this.count.sum() / secs;
+    }
+}
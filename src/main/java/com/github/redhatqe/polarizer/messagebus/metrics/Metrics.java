@@ -0,0 +1,43 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics recorded by the publisher and listener, all kept in one shared registry
+ *
+ * Times are in microseconds, except END_TO_END which is in milliseconds since it compares the sender's clock
+ * (JMSTimestamp) with ours.  Turn on an exporter to read them:
+ * <pre>
+ *     new JmxExporter().start(Metrics.REGISTRY);
+ *     new HttpExporter(9404).start(Metrics.REGISTRY);
+ * </pre>
+ */
+public class Metrics {
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final LatencyHistogram PUBLISH = REGISTRY.histogram("publisher.publish.us");
+    public static final LatencyHistogram CONNECT = REGISTRY.histogram("connect.us");
+    public static final Meter RECEIVED = REGISTRY.meter("listener.received");
+    public static final LatencyHistogram PARSE = REGISTRY.histogram("listener.parse.us");
+    public static final LatencyHistogram HANDLER = REGISTRY.histogram("listener.handler.us");
+    public static final LatencyHistogram END_TO_END = REGISTRY.histogram("listener.endToEnd.ms");
+
+    /**
+     * One counter per value of an enum, so counting a value is an array lookup rather than a map lookup
+     */
+    public static class EnumCounters<E extends Enum<E>> {
+        private final LongAdder[] counters;
+
+        public EnumCounters(MetricsRegistry registry, String prefix, Class<E> cls) {
+            E[] values = cls.getEnumConstants();
+            this.counters = new LongAdder[values.length];
+            for (E v : values)
+                this.counters[v.ordinal()] = registry.counter(prefix + "." + v.name());
+        }
+
+        public void increment(E value) {
+            if (value != null)
+                this.counters[value.ordinal()].increment();
+        }
+    }
+}
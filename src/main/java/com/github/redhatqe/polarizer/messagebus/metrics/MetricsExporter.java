@@ -0,0 +1,11 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+/**
+ * Makes the metrics of a registry readable from outside the process
+ */
+public interface MetricsExporter extends AutoCloseable {
+    void start(MetricsRegistry registry) throws Exception;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,82 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import com.github.redhatqe.polarizer.messagebus.utils.Timers;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds named histograms, meters and counters, and flattens them into one map of values for the exporters
+ *
+ * Look a metric up once and keep it in a field: the lookups take a map access, while recording into a metric does
+ * not allocate.  The meters are ticked on the shared timer until the registry is closed, so close a registry that
+ * does not live as long as the process.
+ */
+public class MetricsRegistry implements AutoCloseable {
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    final ScheduledFuture<?> tick;
+
+    public MetricsRegistry() {
+        this.tick = Timers.shared().scheduleAtFixedRate(() -> this.meters.values().forEach(Meter::tick),
+                Meter.TICK_SECONDS, Meter.TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return this.histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public Meter meter(String name) {
+        return this.meters.computeIfAbsent(name, n -> new Meter());
+    }
+
+    public LongAdder counter(String name) {
+        return this.counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * @return every metric as name to value, sorted by name.  A histogram h gives h.count, h.mean, h.p50, h.p90,
+     *         h.p99, h.p999 and h.max, and a meter m gives m.count, m.rate1m and m.rateMean.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        this.histograms.forEach((name, h) -> {
+            values.put(name + ".count", h.getCount());
+            values.put(name + ".mean", h.getMean());
+            values.put(name + ".p50", h.getValueAtPercentile(50.0));
+            values.put(name + ".p90", h.getValueAtPercentile(90.0));
+            values.put(name + ".p99", h.getValueAtPercentile(99.0));
+            values.put(name + ".p999", h.getValueAtPercentile(99.9));
+            values.put(name + ".max", h.getMax());
+        });
+        this.meters.forEach((name, m) -> {
+            values.put(name + ".count", m.getCount());
+            values.put(name + ".rate1m", m.getOneMinuteRate());
+            values.put(name + ".rateMean", m.getMeanRate());
+        });
+        this.counters.forEach((name, c) -> values.put(name, c.sum()));
+        return values;
+    }
+
+    /**
+     * Sets every histogram, meter and counter back to empty
+     */
+    public void reset() {
+        this.histograms.values().forEach(LatencyHistogram::reset);
+        this.meters.values().forEach(Meter::reset);
+        this.counters.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Stops ticking the meters, so their moving averages stop changing.  The metrics can still be recorded and read.
+     */
+    @Override
+    public void close() {
+        this.tick.cancel(false);
+    }
+}
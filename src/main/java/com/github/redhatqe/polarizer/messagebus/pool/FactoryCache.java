@@ -0,0 +1,150 @@
+package com.github.redhatqe.polarizer.messagebus.pool;
+
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.SslContext;
+import org.apache.activemq.transport.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps one ConnectionFactory per broker url, user and stores, so that the keystore and truststore are only read once
+ * and every connection to an ssl:// broker shares one SSLContext.  Sharing the SSLContext also shares its TLS session
+ * cache, so reconnects can resume the previous session instead of doing a full handshake.
+ *
+ * An entry is rebuilt when the keystore or truststore file changes on disk (by modification time or size), or when
+ * the passwords or tuning settings of the Broker change.
+ */
+public class FactoryCache {
+    private static Logger logger = LoggerFactory.getLogger(FactoryCache.class.getName());
+    private static final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        final String stamp;
+        final ActiveMQConnectionFactory factory;
+
+        Entry(String stamp, ActiveMQConnectionFactory factory) {
+            this.stamp = stamp;
+            this.factory = factory;
+        }
+    }
+
+    /**
+     * An ActiveMQConnectionFactory that always creates its ssl transports with the same SslContext.
+     * ActiveMQSslConnectionFactory instead reloads the stores and creates a new SslContext for every connection.
+     */
+    static class SharedSslConnectionFactory extends ActiveMQConnectionFactory {
+        private final SslContext context;
+
+        SharedSslConnectionFactory(String url, SslContext context) {
+            super(url);
+            this.context = context;
+        }
+
+        @Override
+        protected Transport createTransport() throws JMSException {
+            SslContext existing = SslContext.getCurrentSslContext();
+            try {
+                SslContext.setCurrentSslContext(this.context);
+                return super.createTransport();
+            } finally {
+                SslContext.setCurrentSslContext(existing);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached factory for the url and broker, creating it with create if there is none or it is stale
+     *
+     * @param url url of the broker
+     * @param broker Broker whose credentials and stores the factory uses
+     * @param create builds a new factory
+     * @return the cached factory.  It is shared, so callers must not change its settings.
+     */
+    public static ActiveMQConnectionFactory
+    get(String url, Broker broker, Supplier<ActiveMQConnectionFactory> create) {
+        // The store paths are part of the key, so brokers sharing a url and user but not stores don't evict each other
+        String key = String.format("%s|%s|%s|%s", url, broker.getUser(), broker.getKeystorePath(),
+                broker.getTruststorePath());
+        String stamp = stamp(url, broker);
+        Entry e = cache.compute(key, (k, old) -> {
+            if (old != null && old.stamp.equals(stamp))
+                return old;
+            if (old != null)
+                logger.info(String.format("Settings or stores changed for %s, rebuilding its connection factory", url));
+            return new Entry(stamp, create.get());
+        });
+        return e.factory;
+    }
+
+    /**
+     * Creates a factory for an ssl:// url whose SSLContext is built once from the broker's keystore and truststore
+     *
+     * @param url url of the broker
+     * @param broker Broker with the tls settings
+     * @return a factory that reuses one SSLContext for all its connections
+     */
+    public static ActiveMQConnectionFactory createSsl(String url, Broker broker)
+            throws IOException, GeneralSecurityException {
+        KeyStore ks = load(broker.getKeystorePath(), broker.getKeystorePassword());
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, broker.getKeystoreKeyPassword().toCharArray());
+        KeyManager[] keyManagers = kmf.getKeyManagers();
+
+        KeyStore ts = load(broker.getTruststorePath(), broker.getTruststorePassword());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(ts);
+        TrustManager[] trustManagers = tmf.getTrustManagers();
+
+        SslContext context = new SslContext(keyManagers, trustManagers, new SecureRandom());
+        // Build the SSLContext now, so every connection gets the same one (and its session cache)
+        context.getSSLContext();
+        return new SharedSslConnectionFactory(url, context);
+    }
+
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static KeyStore load(String path, String password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream is = new FileInputStream(path)) {
+            store.load(is, password == null ? null : password.toCharArray());
+        }
+        return store;
+    }
+
+    private static String stamp(String url, Broker broker) {
+        String tuning = broker.getTuning().toString();
+        if (!url.contains("ssl:"))
+            return String.format("%s|%d", tuning, Objects.hashCode(broker.getPassword()));
+        return String.format("%s|%s|%s|%d", tuning,
+                fileStamp(broker.getKeystorePath()), fileStamp(broker.getTruststorePath()),
+                Objects.hash(broker.getKeystorePassword(), broker.getKeystoreKeyPassword(),
+                        broker.getTruststorePassword()));
+    }
+
+    private static String fileStamp(String path) {
+        if (path == null)
+            return "none";
+        File f = new File(path);
+        return String.format("%s:%d:%d", path, f.lastModified(), f.length());
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.redhatqe.polarizer.messagebus.pool;
+
+/**
+ * Settings for a ProducerPool
+ */
+public class PoolSettings {
+    private Integer maxSize = 8;
+    private Long idleTimeout = 60000L;
+    private Long borrowTimeout = 30000L;
+    private Boolean validateOnBorrow = true;
+
+    public PoolSettings() {
+
+    }
+
+    public PoolSettings(Integer maxSize, Long idleTimeout, Long borrowTimeout) {
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * @return The max number of connections (each with its own session and producer) the pool will open
+     */
+    public Integer getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(Integer maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return number of milliseconds a connection may sit unused in the pool before it is closed
+     */
+    public Long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return number of milliseconds to wait for a free connection when the pool is exhausted
+     */
+    public Long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    public void setBorrowTimeout(Long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    public Boolean getValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    public void setValidateOnBorrow(Boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+}
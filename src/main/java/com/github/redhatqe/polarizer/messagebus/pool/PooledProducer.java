@@ -0,0 +1,122 @@
+package com.github.redhatqe.polarizer.messagebus.pool;
+
+import org.apache.activemq.ActiveMQConnection;
+
+import javax.jms.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Connection, Session and anonymous MessageProducer that are owned by a ProducerPool.
+ *
+ * Instances are handed out by {@link ProducerPool#borrow()} and must be given back by calling {@link #close()}, which
+ * does not close the underlying connection.  A PooledProducer must only be used by one thread at a time.
+ */
+public class PooledProducer implements AutoCloseable {
+    private final ProducerPool pool;
+    private final Connection connection;
+    private final Session session;
+    private final MessageProducer producer;
+    private Session txSession = null;
+    private MessageProducer txProducer = null;
+    private final Map<String, Topic> topics = new HashMap<>();
+    private volatile boolean broken = false;
+    long lastUsed;
+
+    PooledProducer(ProducerPool pool, Connection connection) throws JMSException {
+        this.pool = pool;
+        this.connection = connection;
+        this.connection.setExceptionListener(exc -> {
+            ProducerPool.logger.error(exc.getMessage());
+            this.broken = true;
+        });
+        this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        // The destination is given on each send, so one producer works for any topic
+        this.producer = session.createProducer(null);
+        this.lastUsed = System.nanoTime();
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public MessageProducer getProducer() {
+        return producer;
+    }
+
+    /**
+     * Gets a transacted Session on this connection, creating it on first use
+     *
+     * @return a transacted Session
+     * @throws JMSException
+     */
+    public Session getTransactedSession() throws JMSException {
+        if (this.txSession == null) {
+            this.txSession = this.connection.createSession(true, Session.SESSION_TRANSACTED);
+            this.txProducer = this.txSession.createProducer(null);
+        }
+        return this.txSession;
+    }
+
+    /**
+     * @return the anonymous MessageProducer of the transacted Session
+     * @throws JMSException
+     */
+    public MessageProducer getTransactedProducer() throws JMSException {
+        this.getTransactedSession();
+        return this.txProducer;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the Topic for the given name, reusing the one created earlier on this session if there is one
+     *
+     * @param name name of the topic
+     * @return a Topic
+     * @throws JMSException
+     */
+    public Topic topic(String name) throws JMSException {
+        Topic t = this.topics.get(name);
+        if (t == null) {
+            t = this.session.createTopic(name);
+            this.topics.put(name, t);
+        }
+        return t;
+    }
+
+    /**
+     * Marks this producer as unusable so that the pool closes it instead of reusing it
+     */
+    public void invalidate() {
+        this.broken = true;
+    }
+
+    public boolean isHealthy() {
+        if (this.broken)
+            return false;
+        if (this.connection instanceof ActiveMQConnection) {
+            ActiveMQConnection amq = (ActiveMQConnection) this.connection;
+            return !(amq.isClosed() || amq.isClosing() || amq.isTransportFailed());
+        }
+        return true;
+    }
+
+    /**
+     * Gives this producer back to its pool
+     */
+    @Override
+    public void close() {
+        this.pool.giveBack(this);
+    }
+
+    void destroy() {
+        try {
+            this.connection.close();
+        } catch (JMSException e) {
+            ProducerPool.logger.warn(String.format("Error closing pooled connection: %s", e.getMessage()));
+        }
+    }
+}
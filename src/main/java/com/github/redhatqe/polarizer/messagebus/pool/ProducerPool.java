@@ -0,0 +1,223 @@
+package com.github.redhatqe.polarizer.messagebus.pool;
+
+import com.github.redhatqe.polarizer.messagebus.metrics.Metrics;
+import com.github.redhatqe.polarizer.messagebus.utils.Timers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of PooledProducers for a single broker url.
+ *
+ * Opening a connection to the broker (especially over ssl) costs far more than sending a message, so the pool keeps
+ * connections open and reuses them.  At most maxSize connections are open at once.  Connections that have been idle
+ * longer than the idle timeout are closed in the background, and connections whose transport has failed are thrown
+ * away rather than handed out.
+ */
+public class ProducerPool implements AutoCloseable {
+    static final Logger logger = LoggerFactory.getLogger(ProducerPool.class.getName());
+
+    private final String url;
+    private final ConnectionFactory factory;
+    private final String clientIDPrefix;
+    private final PoolSettings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledProducer> idle = new ArrayDeque<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final ScheduledFuture<?> evictor;
+    private int total = 0;
+    private boolean closed = false;
+
+    public ProducerPool(String url, ConnectionFactory factory, String clientIDPrefix, PoolSettings settings) {
+        this.url = url;
+        this.factory = factory;
+        this.clientIDPrefix = clientIDPrefix;
+        this.settings = settings;
+        long period = Math.max(1000L, settings.getIdleTimeout() / 2);
+        // Closing a connection waits on the broker, so the timer only hands eviction off
+        this.evictor = Timers.scheduleBlockingAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Gets a producer from the pool, opening a new connection if none are idle and the pool is not full.  If the pool
+     * is full, waits up to the borrow timeout for another thread to give one back.
+     *
+     * @return a PooledProducer that must be closed when the caller is done with it
+     * @throws JMSException if the pool is closed, the wait timed out, or a new connection could not be opened
+     */
+    public PooledProducer borrow() throws JMSException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(this.settings.getBorrowTimeout());
+        while (true) {
+            PooledProducer found = null;
+            this.lock.lock();
+            try {
+                while (found == null) {
+                    if (this.closed)
+                        throw new JMSException(String.format("ProducerPool for %s is closed", this.url));
+                    if (!this.idle.isEmpty())
+                        found = this.idle.pollFirst();
+                    else if (this.total < this.settings.getMaxSize()) {
+                        this.total++;
+                        break;
+                    }
+                    else {
+                        if (remaining <= 0)
+                            throw new JMSException(String.format("Timed out waiting for a connection to %s", this.url));
+                        remaining = this.available.awaitNanos(remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JMSException("Interrupted while waiting for a pooled connection");
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (found == null)
+                return this.create();
+            if (!this.settings.getValidateOnBorrow() || found.isHealthy())
+                return found;
+            logger.info(String.format("Discarding unhealthy pooled connection to %s", this.url));
+            this.discard(found);
+        }
+    }
+
+    /**
+     * Opens a new connection.  The caller must already have reserved a slot by incrementing total.
+     */
+    private PooledProducer create() throws JMSException {
+        Connection connection = null;
+        try {
+            long start = System.nanoTime();
+            connection = this.factory.createConnection();
+            connection.setClientID(String.format("%s.%d", this.clientIDPrefix, this.sequence.incrementAndGet()));
+            PooledProducer pp = new PooledProducer(this, connection);
+            Metrics.CONNECT.recordSinceNanos(start);
+            return pp;
+        } catch (JMSException | RuntimeException e) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (JMSException ce) {
+                    logger.warn(ce.getMessage());
+                }
+            }
+            this.release();
+            throw e;
+        }
+    }
+
+    void giveBack(PooledProducer p) {
+        boolean keep;
+        this.lock.lock();
+        try {
+            keep = !this.closed && p.isHealthy();
+            if (keep) {
+                p.lastUsed = System.nanoTime();
+                this.idle.offerFirst(p);
+                this.available.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (!keep)
+            this.discard(p);
+    }
+
+    private void discard(PooledProducer p) {
+        p.destroy();
+        this.release();
+    }
+
+    private void release() {
+        this.lock.lock();
+        try {
+            this.total--;
+            this.available.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes connections that have been idle longer than the idle timeout, or which are no longer healthy
+     */
+    public void evictIdle() {
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(this.settings.getIdleTimeout());
+        List<PooledProducer> evicted = new ArrayList<>();
+        this.lock.lock();
+        try {
+            Iterator<PooledProducer> it = this.idle.iterator();
+            while (it.hasNext()) {
+                PooledProducer p = it.next();
+                if (p.lastUsed - cutoff < 0 || !p.isHealthy()) {
+                    it.remove();
+                    evicted.add(p);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (!evicted.isEmpty())
+            logger.debug(String.format("Evicting %d idle connections to %s", evicted.size(), this.url));
+        evicted.forEach(this::discard);
+    }
+
+    public int getIdleCount() {
+        this.lock.lock();
+        try {
+            return this.idle.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of open connections, both idle and borrowed
+     */
+    public int getTotalCount() {
+        this.lock.lock();
+        try {
+            return this.total;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all idle connections.  Borrowed connections are closed when they are given back.
+     */
+    @Override
+    public void close() {
+        List<PooledProducer> drained;
+        this.lock.lock();
+        try {
+            this.closed = true;
+            drained = new ArrayList<>(this.idle);
+            this.idle.clear();
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        this.evictor.cancel(false);
+        drained.forEach(this::discard);
+    }
+}
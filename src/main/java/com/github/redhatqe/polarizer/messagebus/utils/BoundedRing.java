@@ -0,0 +1,159 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free, fixed size ring of the most recent elements added to it.  Any number of threads may add and poll at
+ * the same time.  Once the ring is full, adding an element silently drops the oldest one, like CircularFifoQueue.
+ *
+ * Every element is stamped with the sequence number it was added at, which is what lets readers tell a slot that
+ * holds the element they want from one that is still being written or has already been overwritten.
+ *
+ * @param <E> type of the elements
+ */
+public class BoundedRing<E> implements Iterable<E> {
+    private static final class Slot<E> {
+        final long seq;
+        final E value;
+
+        Slot(long seq, E value) {
+            this.seq = seq;
+            this.value = value;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Slot<E>> slots;
+    // sequence number the next add will use
+    private final AtomicLong tail = new AtomicLong(0);
+    // sequence number of the oldest element not yet polled
+    private final AtomicLong head = new AtomicLong(0);
+
+    public BoundedRing(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    private int index(long seq) {
+        return (int) (seq % this.capacity);
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Adds an element, dropping the oldest one if the ring is full
+     */
+    public void add(E e) {
+        long seq = this.tail.getAndIncrement();
+        this.slots.set(this.index(seq), new Slot<>(seq, e));
+        long oldest = seq - this.capacity + 1;
+        long h;
+        while ((h = this.head.get()) < oldest) {
+            if (this.head.compareAndSet(h, oldest))
+                break;
+        }
+    }
+
+    public void addAll(Iterable<E> elements) {
+        elements.forEach(this::add);
+    }
+
+    /**
+     * Removes and returns the oldest element
+     *
+     * @return the oldest element, or null if the ring is empty or the oldest element is still being written
+     */
+    public E poll() {
+        return this.take(false);
+    }
+
+    /**
+     * Like poll, but throws NoSuchElementException if there is nothing to remove.  An add that has claimed the oldest
+     * slot but not yet written it is waited for rather than taken as empty, so if isEmpty() was false and no other
+     * thread removed in between, remove() returns an element.
+     */
+    public E remove() {
+        E e = this.take(true);
+        if (e == null)
+            throw new NoSuchElementException();
+        return e;
+    }
+
+    /**
+     * @param wait whether to wait for the oldest element while it is being written
+     * @return the oldest element, or null
+     */
+    private E take(boolean wait) {
+        while (true) {
+            long h = this.head.get();
+            if (h >= this.tail.get())
+                return null;
+            int idx = this.index(h);
+            Slot<E> s = this.slots.get(idx);
+            if (s == null || s.seq < h) {
+                if (!wait)
+                    return null;
+                // The add that claimed h is between taking its sequence number and writing the slot
+                Thread.yield();
+                continue;
+            }
+            if (s.seq > h) {
+                // A writer lapped us and will move head past h, help it along
+                this.head.compareAndSet(h, Math.max(h + 1, s.seq - this.capacity + 1));
+                continue;
+            }
+            if (this.head.compareAndSet(h, h + 1)) {
+                // Don't hold on to the element until it's overwritten
+                this.slots.compareAndSet(idx, s, null);
+                return s.value;
+            }
+        }
+    }
+
+    /**
+     * @return the number of elements in the ring at the moment it was called
+     */
+    public int size() {
+        long n = this.tail.get() - this.head.get();
+        return (int) Math.max(0, Math.min(n, this.capacity));
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * Copies the elements, oldest first, without removing them.  Elements added or polled while the copy is being made
+     * may or may not be in it.
+     *
+     * @return a new List of the elements
+     */
+    public List<E> snapshot() {
+        long t = this.tail.get();
+        long h = Math.max(this.head.get(), t - this.capacity);
+        List<E> copy = new ArrayList<>((int) Math.max(0, t - h));
+        for (long seq = h; seq < t; seq++) {
+            Slot<E> s = this.slots.get(this.index(seq));
+            if (s != null && s.seq == seq)
+                copy.add(s.value);
+        }
+        return copy;
+    }
+
+    /**
+     * Iterates over a snapshot of the ring
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return this.snapshot().iterator();
+    }
+}
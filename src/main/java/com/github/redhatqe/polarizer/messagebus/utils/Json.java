@@ -0,0 +1,35 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared Jackson objects for the messagebus package.
+ *
+ * An ObjectMapper is expensive to create and caches its (de)serializers, so creating one per message throws that work
+ * away every time.  The readers and writers here are immutable and safe to share between threads.  Don't change the
+ * configuration of MAPPER, since every user of this class shares it.
+ */
+public class Json {
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+    public static final JsonNodeFactory NODES = MAPPER.getNodeFactory();
+    public static final ObjectReader TREE_READER = MAPPER.readerFor(JsonNode.class);
+    public static final ObjectWriter WRITER = MAPPER.writer();
+    public static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    /**
+     * @param cls class to bind JSON to
+     * @return a shared ObjectReader for the class
+     */
+    public static ObjectReader readerFor(Class<?> cls) {
+        return readers.computeIfAbsent(cls, MAPPER::readerFor);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import java.util.Enumeration;
+
+/**
+ * Turns the entries of a MapMessage into an ObjectNode, one field per map entry
+ *
+ * A MapMessage can only hold the JMS primitive types, so each value maps straight onto a Jackson node: booleans,
+ * numbers and strings to the matching value node, a char to a one character text node, and a byte[] to a BinaryNode
+ * wrapping the array as it is (it is not copied, so don't change the array afterwards).  Only a value of any other
+ * type, which a conforming provider never hands out, falls back to the ObjectMapper.
+ */
+public class MapMessageConverter {
+    private static final JsonNodeFactory NODES = Json.NODES;
+
+    /**
+     * @param mm the message to convert
+     * @return an ObjectNode with a field for every name in the map, in the order getMapNames returns them
+     * @throws JMSException if the provider can't read the map
+     */
+    public static ObjectNode toNode(MapMessage mm) throws JMSException {
+        ObjectNode root = NODES.objectNode();
+        Enumeration names = mm.getMapNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            root.set(name, toNode(mm.getObject(name)));
+        }
+        return root;
+    }
+
+    /**
+     * @param value a value from a MapMessage
+     * @return the node for the value
+     */
+    public static JsonNode toNode(Object value) {
+        if (value == null)
+            return NODES.nullNode();
+        if (value instanceof String)
+            return NODES.textNode((String) value);
+        if (value instanceof Integer)
+            return NODES.numberNode((Integer) value);
+        if (value instanceof Long)
+            return NODES.numberNode((Long) value);
+        if (value instanceof Boolean)
+            return NODES.booleanNode((Boolean) value);
+        if (value instanceof Double)
+            return NODES.numberNode((Double) value);
+        if (value instanceof byte[])
+            return NODES.binaryNode((byte[]) value);
+        if (value instanceof Float)
+            return NODES.numberNode((Float) value);
+        // A short comes out of a tree parse or convertValue as an IntNode, not a ShortNode, so match that
+        if (value instanceof Short)
+            return NODES.numberNode(((Short) value).intValue());
+        if (value instanceof Byte)
+            return NODES.numberNode((Byte) value);
+        if (value instanceof Character)
+            return NODES.textNode(value.toString());
+        return Json.MAPPER.valueToTree(value);
+    }
+}
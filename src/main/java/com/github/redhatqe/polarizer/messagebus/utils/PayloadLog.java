@@ -0,0 +1,143 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether and how much of a message payload gets logged
+ *
+ * Payloads are only logged at DEBUG, as one line per message with its id, a few known properties, its size and its
+ * body cut to maxChars.  With SAMPLED, only one message in every sampleEvery is logged.  Nothing is formatted unless
+ * the line will actually be written, and a result tree is serialized into a bounded buffer, so a large payload costs
+ * no more to log than maxChars of it.
+ */
+public class PayloadLog {
+    public enum Mode {
+        OFF,
+        SAMPLED,
+        ALL
+    }
+
+    public static final Integer DEFAULT_MAX_CHARS = 2048;
+    private static final String[] PROPS = { "type", "rhsm_qe", "job-id" };
+
+    private final Mode mode;
+    private final Integer sampleEvery;
+    private final Integer maxChars;
+    private final Boolean pretty;
+    private final AtomicLong seen = new AtomicLong();
+
+    /**
+     * Logs every payload at DEBUG, cut to DEFAULT_MAX_CHARS, without pretty-printing
+     */
+    public PayloadLog() {
+        this(Mode.ALL, 1, DEFAULT_MAX_CHARS, false);
+    }
+
+    /**
+     * @param mode whether to log none, some or all of the payloads
+     * @param sampleEvery with SAMPLED, log one payload in this many
+     * @param maxChars most characters of a payload to log
+     * @param pretty pretty-print result trees
+     */
+    public PayloadLog(Mode mode, Integer sampleEvery, Integer maxChars, Boolean pretty) {
+        this.mode = mode;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.maxChars = maxChars;
+        this.pretty = pretty;
+    }
+
+    /**
+     * @return true if the next payload should be logged.  Call it once per payload, since it advances the sample.
+     */
+    public boolean enabled(Logger logger) {
+        if (this.mode == Mode.OFF || !logger.isDebugEnabled())
+            return false;
+        return this.mode == Mode.ALL || this.seen.getAndIncrement() % this.sampleEvery == 0;
+    }
+
+    /**
+     * Logs a received message and its text at DEBUG, if enabled
+     */
+    public void logMessage(Logger logger, Message msg, String text) {
+        if (!this.enabled(logger))
+            return;
+        StringBuilder sb = new StringBuilder(Math.min(this.maxChars, text == null ? 0 : text.length()) + 128);
+        try {
+            sb.append("message id=").append(msg.getJMSMessageID());
+            for (String p : PROPS) {
+                String val = msg.getStringProperty(p);
+                if (val != null)
+                    sb.append(' ').append(p).append('=').append(val);
+            }
+        } catch (JMSException e) {
+            sb.append(" props=unreadable");
+        }
+        int size = text == null ? 0 : text.length();
+        sb.append(" size=").append(size).append(" body=");
+        if (text != null)
+            sb.append(text, 0, Math.min(size, this.maxChars));
+        if (size > this.maxChars)
+            sb.append("...");
+        logger.debug(sb.toString());
+    }
+
+    /**
+     * Logs a parsed result tree at DEBUG, if enabled
+     */
+    public void logResult(Logger logger, JsonNode root) {
+        if (root == null || !this.enabled(logger))
+            return;
+        BoundedWriter w = new BoundedWriter(this.maxChars);
+        try {
+            (this.pretty ? Json.PRETTY_WRITER : Json.WRITER).writeValue(w, root);
+        } catch (IOException e) {
+            logger.debug(e.getMessage());
+        }
+        logger.debug("result " + w);
+    }
+
+    /**
+     * Keeps the first max characters written to it, and drops the rest
+     */
+    static class BoundedWriter extends Writer {
+        private final StringBuilder sb;
+        private final int max;
+        private boolean truncated = false;
+
+        BoundedWriter(int max) {
+            this.max = max;
+            this.sb = new StringBuilder(Math.min(max, 1024));
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            int room = this.max - this.sb.length();
+            if (len > room)
+                this.truncated = true;
+            if (room > 0)
+                this.sb.append(cbuf, off, Math.min(len, room));
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+
+        @Override
+        public String toString() {
+            return this.truncated ? this.sb + "..." : this.sb.toString();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds a single daemon scheduler that is shared by the messagebus classes for housekeeping work such as idle
+ * eviction and timeouts.  Tasks run on it must be short and must never block, since they all share one thread.
+ *
+ * Work that may block, such as closing a connection, sending an ack or completing a future whose callbacks are not
+ * ours, goes through {@link #scheduleBlocking} or {@link #scheduleBlockingAtFixedRate} instead.  The timer thread then
+ * only hands the task to a small pool of worker threads when it is due.
+ */
+public class Timers {
+    private static final Integer WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final ScheduledExecutorService shared = create();
+    private static final ThreadPoolExecutor workers = createWorkers();
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setName(name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static ScheduledExecutorService create() {
+        ScheduledThreadPoolExecutor exec = new ScheduledThreadPoolExecutor(1, daemon("polarizer-umb-timer"));
+        // cancelled timeouts are the common case, so don't let them pile up in the work queue
+        exec.setRemoveOnCancelPolicy(true);
+        return exec;
+    }
+
+    private static ThreadPoolExecutor createWorkers() {
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemon("polarizer-umb-timer-work"));
+        exec.allowCoreThreadTimeOut(true);
+        return exec;
+    }
+
+    public static ScheduledExecutorService shared() {
+        return shared;
+    }
+
+    /**
+     * Runs a task that may block once, after delay.  Cancelling the returned future before the task is due stops it
+     * from running.
+     */
+    public static ScheduledFuture<?> scheduleBlocking(Runnable task, long delay, TimeUnit unit) {
+        return shared.schedule(() -> workers.execute(task), delay, unit);
+    }
+
+    /**
+     * Runs a task that may block every period, after initialDelay.  A run that is due while the previous one is still
+     * going is skipped, so runs never overlap or pile up.  Cancelling the returned future stops further runs.
+     */
+    public static ScheduledFuture<?>
+    scheduleBlockingAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        AtomicBoolean running = new AtomicBoolean(false);
+        return shared.scheduleAtFixedRate(() -> {
+            if (!running.compareAndSet(false, true))
+                return;
+            try {
+                workers.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+            }
+        }, initialDelay, period, unit);
+    }
+}
@@ -0,0 +1,324 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.exceptions.InvalidConfigError;
+import com.github.redhatqe.polarizer.messagebus.metrics.Metrics;
+import io.reactivex.subscribers.TestSubscriber;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CIBusListenerTest {
+    private static final String BROKER = "listener-test";
+    private BrokerService service;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        this.service = TestBrokers.start(BROKER);
+        this.url = TestBrokers.vmUrl(BROKER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestBrokers.stop(this.service);
+    }
+
+    private void send(String text) throws JMSException {
+        Connection conn = new ActiveMQConnectionFactory(this.url).createConnection();
+        try {
+            Session session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(session.createQueue(TestBrokers.CONSUMER_QUEUE));
+            producer.send(session.createTextMessage(text));
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void awaitValues(TestSubscriber<?> ts, int count, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (ts.valueCount() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+    }
+
+    /**
+     * A request made while no messages are waiting must still be filled by the next message that arrives, however
+     * many polls come back empty in between
+     */
+    @Test(timeout = 30000)
+    public void flowableKeepsDemandOverAnIdlePeriod() throws Exception {
+        CIBusListener<String> listener = new CIBusListener<>(
+                node -> new MessageResult<>(node.toString(), node, MessageResult.Status.SUCCESS),
+                TestBrokers.config(this.url));
+        TestSubscriber<MessageResult<String>> ts = listener.flowable("", TestBrokers.CONSUMER_QUEUE).test(1);
+        try {
+            // Several receive timeouts go by with nothing on the queue
+            Thread.sleep(2000);
+            assertEquals(0, ts.valueCount());
+
+            this.send("{\"greeting\": \"hello\"}");
+            awaitValues(ts, 1, 10000);
+            ts.assertNoErrors();
+            ts.assertValueCount(1);
+            assertTrue(ts.values().get(0).info.contains("hello"));
+
+            // Only one was requested, so the next message stays on the broker until it is asked for
+            this.send("{\"greeting\": \"again\"}");
+            Thread.sleep(1000);
+            ts.assertValueCount(1);
+            ts.request(1);
+            awaitValues(ts, 2, 10000);
+            ts.assertValueCount(2);
+        } finally {
+            ts.dispose();
+        }
+    }
+
+    private CIBusListener<String> counting(AtomicInteger handled, String failOnce) {
+        AtomicInteger failed = new AtomicInteger(0);
+        return new CIBusListener<>(node -> {
+            if (failOnce != null && node.toString().contains(failOnce) && failed.getAndIncrement() == 0)
+                throw new IllegalStateException("failing " + failOnce + " once");
+            handled.incrementAndGet();
+            return new MessageResult<>(node.toString(), node, MessageResult.Status.SUCCESS);
+        }, TestBrokers.config(this.url));
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (count.get() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void dupsOkIsRejectedWithAWorkerStage() {
+        CIBusListener<String> listener = this.counting(new AtomicInteger(), null);
+        listener.setWorkerStage(2, 10, WorkerStage.Policy.BLOCK);
+        listener.setAckMode(AckMode.DUPS_OK);
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void aWorkerStageIsRejectedWithClientAcks() {
+        CIBusListener<String> listener = this.counting(new AtomicInteger(), null);
+        listener.setAckMode(AckMode.CLIENT);
+        listener.setWorkerStage(2, 10, WorkerStage.Policy.BLOCK);
+    }
+
+    /**
+     * Messages handled since the last batched ack must be acked by disconnect, not redelivered to the next consumer
+     */
+    @Test(timeout = 30000)
+    public void disconnectAcksWhatWasHandled() throws Exception {
+        AtomicInteger handled = new AtomicInteger(0);
+        CIBusListener<String> listener = this.counting(handled, null);
+        listener.setAckMode(AckMode.CLIENT);
+        listener.setAckBatch(100, 0L);
+        Optional<Connection> conn = listener.tapIntoMessageBus("", listener.createListener(listener.messageParser()),
+                TestBrokers.CONSUMER_QUEUE);
+        assertTrue(conn.isPresent());
+        for (int i = 0; i < 3; i++)
+            this.send(String.format("{\"n\": %d}", i));
+        awaitCount(handled, 3, 10000);
+        assertEquals(3, handled.get());
+
+        listener.disconnect(conn.get());
+        assertTrue(TestBrokers.drainQueue(this.url, 3, 1000).isEmpty());
+    }
+
+    /**
+     * A failure on a worker thread is recovered on the session's thread, so the failed message comes back
+     */
+    @Test(timeout = 30000)
+    public void aFailureOnAWorkerIsRedelivered() throws Exception {
+        AtomicInteger handled = new AtomicInteger(0);
+        CIBusListener<String> listener = this.counting(handled, "poison");
+        listener.setAckMode(AckMode.INDIVIDUAL);
+        listener.setAckBatch(1, 0L);
+        listener.setWorkerStage(2, 10, WorkerStage.Policy.BLOCK);
+        Optional<Connection> conn = listener.tapIntoMessageBus("", listener.createListener(listener.messageParser()),
+                TestBrokers.CONSUMER_QUEUE);
+        assertTrue(conn.isPresent());
+        try {
+            this.send("{\"body\": \"poison\"}");
+            Thread.sleep(1000);
+            assertEquals(0, handled.get());
+
+            // The recover happens when the session delivers again
+            this.send("{\"body\": \"next\"}");
+            awaitCount(handled, 2, 10000);
+            assertEquals(2, handled.get());
+        } finally {
+            listener.disconnect(conn.get());
+            listener.getWorkerStage().shutdown();
+        }
+    }
+
+    /**
+     * In CLIENT mode an ack covers every delivered message, so the ack window running out while a handler is still
+     * busy must not ack the message that handler then fails
+     */
+    @Test(timeout = 30000)
+    public void aFailureAfterTheAckWindowIsRedelivered() throws Exception {
+        AtomicInteger slowHandled = new AtomicInteger(0);
+        AtomicInteger slowFailed = new AtomicInteger(0);
+        AtomicInteger handled = new AtomicInteger(0);
+        CIBusListener<String> listener = new CIBusListener<>(node -> {
+            if (node.toString().contains("slow") && slowFailed.getAndIncrement() == 0) {
+                try {
+                    // Several ack windows go by while this handler runs
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("failing slow once");
+            }
+            if (node.toString().contains("slow"))
+                slowHandled.incrementAndGet();
+            handled.incrementAndGet();
+            return new MessageResult<>(node.toString(), node, MessageResult.Status.SUCCESS);
+        }, TestBrokers.config(this.url));
+        listener.setAckMode(AckMode.CLIENT);
+        listener.setAckBatch(100, 200L);
+        Optional<Connection> conn = listener.tapIntoMessageBus("", listener.createListener(listener.messageParser()),
+                TestBrokers.CONSUMER_QUEUE);
+        assertTrue(conn.isPresent());
+        try {
+            this.send("{\"body\": \"first\"}");
+            awaitCount(handled, 1, 10000);
+            this.send("{\"body\": \"slow\"}");
+
+            awaitCount(slowHandled, 1, 15000);
+            assertEquals(1, slowHandled.get());
+            assertEquals(2, slowFailed.get());
+        } finally {
+            listener.disconnect(conn.get());
+        }
+        assertTrue(TestBrokers.drainQueue(this.url, 2, 1000).isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void nothingIsHandledAfterListenUntilCompletes() throws Exception {
+        AtomicInteger handled = new AtomicInteger(0);
+        CIBusListener<String> listener = this.counting(handled, null);
+        Optional<Connection> conn = listener.tapIntoMessageBus("", listener.createListener(listener.messageParser()),
+                TestBrokers.CONSUMER_QUEUE);
+        assertTrue(conn.isPresent());
+        try {
+            CompletableFuture<Integer> done = listener.listenUntilAsync(10000L, 1);
+            this.send("{\"n\": 1}");
+            assertEquals(Integer.valueOf(1), done.get(10, TimeUnit.SECONDS));
+            assertTrue(listener.isCompleted());
+
+            this.send("{\"n\": 2}");
+            Thread.sleep(1000);
+            assertEquals(1, handled.get());
+            assertTrue(listener.isCompleted());
+        } finally {
+            listener.disconnect(conn.get());
+        }
+    }
+
+    /**
+     * Once listenUntil has shut the worker stage down, a late message must be dropped, not thrown back to the broker
+     * to be redelivered over and over
+     */
+    @Test(timeout = 30000)
+    public void aMessageAfterListenUntilIsNotRedelivered() throws Exception {
+        AtomicInteger handled = new AtomicInteger(0);
+        CIBusListener<String> listener = this.counting(handled, null);
+        listener.setWorkerStage(2, 10, WorkerStage.Policy.BLOCK);
+        Optional<Connection> conn = listener.tapIntoMessageBus("", listener.createListener(listener.messageParser()),
+                TestBrokers.CONSUMER_QUEUE);
+        assertTrue(conn.isPresent());
+        try {
+            CompletableFuture<Integer> done = listener.listenUntilAsync(10000L, 1);
+            this.send("{\"n\": 1}");
+            assertEquals(Integer.valueOf(1), done.get(10, TimeUnit.SECONDS));
+
+            long received = Metrics.RECEIVED.getCount();
+            this.send("{\"n\": 2}");
+            // Long enough for a couple of redeliveries, had the message been thrown back
+            Thread.sleep(2500);
+            assertEquals(1, Metrics.RECEIVED.getCount() - received);
+            assertEquals(1, handled.get());
+        } finally {
+            listener.disconnect(conn.get());
+        }
+        assertTrue(TestBrokers.drainQueue(this.url, 1, 1000).isEmpty());
+    }
+
+    /**
+     * A message the FAIL policy turns away is reported as failed to the acker, so it comes back once there is room
+     */
+    @Test(timeout = 30000)
+    public void aMessageTheStageRejectsIsRedelivered() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Set<String> handled = ConcurrentHashMap.newKeySet();
+        CIBusListener<String> listener = new CIBusListener<>(node -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add(node.at("/root/n").asText());
+            return new MessageResult<>(node.toString(), node, MessageResult.Status.SUCCESS);
+        }, TestBrokers.config(this.url));
+        listener.setAckMode(AckMode.INDIVIDUAL);
+        listener.setAckBatch(1, 0L);
+        listener.setWorkerStage(1, 1, WorkerStage.Policy.FAIL);
+        Optional<Connection> conn = listener.tapIntoMessageBus("", listener.createListener(listener.messageParser()),
+                TestBrokers.CONSUMER_QUEUE);
+        assertTrue(conn.isPresent());
+        try {
+            for (int i = 0; i < 4; i++)
+                this.send(String.format("{\"n\": %d}", i));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (listener.getWorkerStage().getRejected() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(20);
+            assertTrue(listener.getWorkerStage().getRejected() > 0);
+
+            release.countDown();
+            deadline = System.currentTimeMillis() + 15000;
+            while (handled.size() < 4 && System.currentTimeMillis() < deadline)
+                Thread.sleep(20);
+            assertEquals(new HashSet<>(Arrays.asList("0", "1", "2", "3")), handled);
+        } finally {
+            release.countDown();
+            listener.disconnect(conn.get());
+            listener.getWorkerStage().shutdown();
+        }
+        assertTrue(TestBrokers.drainQueue(this.url, 4, 1000).isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void deleteQueueRemovesADurableQueueWithItsMessages() throws Exception {
+        CIBusListener<String> listener = this.counting(new AtomicInteger(), null);
+        listener.setDurable("delete-test");
+        String queue = listener.getConsumerQueue(CIBusPublisher.DEFAULT_PUBLISH_DEST);
+        assertEquals("Consumer.client-polarize.delete-test.VirtualTopic.qe.ci.jenkins", queue);
+        listener.register("", queue);
+
+        try (CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(this.url))) {
+            assertEquals(MessageResult.Status.SUCCESS, pub.publish("kept", new JMSMessageOptions("test")).getStatus());
+        }
+        listener.deleteQueue(queue);
+        assertTrue(TestBrokers.drainQueue(this.url, queue, 1, 1000).isEmpty());
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CIBusPublisherTest {
+    private static final String BROKER = "publisher-test";
+    private BrokerService service;
+    private String url;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        this.service = TestBrokers.start(BROKER);
+        this.url = TestBrokers.vmUrl(BROKER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestBrokers.stop(this.service);
+    }
+
+    @Test(timeout = 30000)
+    public void publishAsyncReportsTheMessageId() throws Exception {
+        try (CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(this.url))) {
+            List<CompletableFuture<MessageResult<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++)
+                futures.add(pub.publishAsync("message-" + i, new JMSMessageOptions("test")));
+
+            Set<String> ids = new HashSet<>();
+            for (CompletableFuture<MessageResult<String>> f : futures) {
+                MessageResult<String> result = f.get(10, TimeUnit.SECONDS);
+                assertEquals(MessageResult.Status.SUCCESS, result.getStatus());
+                assertNotNull(result.info);
+                ids.add(result.info);
+            }
+            assertEquals(50, ids.size());
+            assertEquals(50, TestBrokers.drainQueue(this.url, 51, 2000).size());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void publishAsyncToADeadBrokerFails() throws Exception {
+        try (CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(TestBrokers.vmUrl("no-such-broker")))) {
+            MessageResult<String> result = pub.publishAsync("lost", new JMSMessageOptions("test"))
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(MessageResult.Status.JMS_EXCEPTION, result.getStatus());
+            assertNull(result.info);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getPoolThrowsOnceClosed() {
+        CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(this.url));
+        pub.close();
+        pub.getPool(this.url, TestBrokers.config(this.url).getBrokers().get("ci"));
+    }
+
+    /**
+     * Closing the publisher stops the outbox from sending through it, and another publisher can take over
+     */
+    @Test(timeout = 30000)
+    public void closeDetachesTheOutboxDrainer() throws Exception {
+        try (Outbox outbox = new Outbox(this.tmp.getRoot().toPath())) {
+            CIBusPublisher closed = new CIBusPublisher(TestBrokers.config(this.url));
+            closed.setOutbox(outbox);
+            closed.close();
+
+            outbox.append(new OutboxRecord(this.url, "waiting", new JMSMessageOptions("test")));
+            Thread.sleep(3 * Outbox.DEFAULT_DRAIN_INTERVAL);
+            assertEquals(1, outbox.getPending(this.url));
+
+            try (CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(this.url))) {
+                pub.setOutbox(outbox);
+                long deadline = System.currentTimeMillis() + 10000;
+                while (outbox.getPending(this.url) > 0 && System.currentTimeMillis() < deadline)
+                    Thread.sleep(100);
+                assertEquals(0, outbox.getPending(this.url));
+                assertEquals(Arrays.asList("waiting"), TestBrokers.drainQueue(this.url, 2, 2000));
+            }
+        }
+    }
+}
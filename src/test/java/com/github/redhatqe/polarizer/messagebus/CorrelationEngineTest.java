@@ -0,0 +1,46 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CorrelationEngineTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * A request stored in the outbox may still be sent and answered, so it must wait for the reply like any other
+     */
+    @Test(timeout = 30000)
+    public void aRequestInTheOutboxWaitsForItsReply() throws Exception {
+        String url = TestBrokers.vmUrl("correlation-nowhere");
+        Outbox outbox = new Outbox(this.tmp.getRoot().toPath());
+        CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(url));
+        CIBusListener<String> listener = new CIBusListener<>(
+                node -> new MessageResult<>(node.toString(), node, MessageResult.Status.SUCCESS),
+                TestBrokers.config(url));
+        CorrelationEngine<String> engine = new CorrelationEngine<>(pub, listener,
+                node -> new MessageResult<>(node.toString(), node, MessageResult.Status.SUCCESS));
+        try {
+            pub.setOutbox(outbox);
+            CompletableFuture<MessageResult<String>> reply =
+                    engine.request("{\"ping\": 1}", new JMSMessageOptions("test"), 1500L);
+            Thread.sleep(500);
+            assertEquals(1, outbox.getPending(url));
+            assertFalse(reply.isDone());
+
+            MessageResult<String> result = reply.get(10, TimeUnit.SECONDS);
+            assertEquals(MessageResult.Status.TIMED_OUT, result.getStatus());
+            assertEquals(Integer.valueOf(0), engine.getPendingCount());
+        } finally {
+            engine.close();
+            pub.close();
+            outbox.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.messagebus.config.FailoverOpts;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.jms.DeliveryMode;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Publishes through the failover transport to two embedded brokers
+ */
+public class FailoverTest {
+    private BrokerService primary;
+    private BrokerService backup;
+    private String primaryTcp;
+    private String backupTcp;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        this.primaryTcp = String.format("tcp://localhost:%d", TestBrokers.freePort());
+        this.backupTcp = String.format("tcp://localhost:%d", TestBrokers.freePort());
+    }
+
+    private void startBrokers() throws Exception {
+        this.primary = TestBrokers.start("failover-primary", this.primaryTcp);
+        this.backup = TestBrokers.start("failover-backup", this.backupTcp);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestBrokers.stop(this.primary);
+        TestBrokers.stop(this.backup);
+    }
+
+    private BrokerConfig config(Long timeout) {
+        BrokerConfig cfg = TestBrokers.config(this.primaryTcp);
+        cfg.addBroker("ci-backup", new Broker(this.backupTcp, "", "", 5000L, 1));
+        FailoverOpts fo = cfg.getFailover();
+        fo.setEnabled(true);
+        fo.setBrokers(Arrays.asList("ci", "ci-backup"));
+        fo.setInitialReconnectDelay(100L);
+        fo.setMaxReconnectDelay(1000L);
+        fo.setPriorityBackup(false);
+        fo.setTimeout(timeout);
+        return cfg;
+    }
+
+    @Test
+    public void theConnectUrlListsTheFailoverBrokersInOrder() {
+        BrokerConfig cfg = this.config(10000L);
+        String url = cfg.getConnectUrl();
+        assertTrue(url, url.startsWith(String.format("failover:(%s,%s)?", this.primaryTcp, this.backupTcp)));
+        assertTrue(url, url.contains("randomize=false"));
+
+        // With no brokers listed, the default broker comes first and the rest follow by name
+        cfg.getFailover().setBrokers(Collections.emptyList());
+        assertTrue(cfg.getConnectUrl().startsWith(String.format("failover:(%s,%s)?", this.primaryTcp, this.backupTcp)));
+
+        cfg.getFailover().setEnabled(false);
+        assertEquals(this.primaryTcp, cfg.getConnectUrl());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anUnknownFailoverBrokerIsRejected() {
+        BrokerConfig cfg = this.config(10000L);
+        cfg.getFailover().setBrokers(Arrays.asList("ci", "no-such-broker"));
+        cfg.getConnectUrl();
+    }
+
+    @Test
+    public void theUrlCarriesTheTimeout() {
+        FailoverOpts fo = new FailoverOpts();
+        assertEquals(FailoverOpts.DEFAULT_TIMEOUT, fo.getTimeout());
+        assertTrue(fo.toUrl(Collections.singletonList("tcp://a:61616")).contains("&timeout=10000"));
+        fo.setTimeout(2500L);
+        assertTrue(new FailoverOpts(fo).toUrl(Collections.singletonList("tcp://a:61616")).contains("&timeout=2500"));
+    }
+
+    @Test(timeout = 60000)
+    public void publishMovesToTheBackupWhenThePrimaryStops() throws Exception {
+        this.startBrokers();
+        try (CIBusPublisher pub = new CIBusPublisher(this.config(10000L))) {
+            JMSMessageOptions opts = new JMSMessageOptions("test");
+            assertEquals(MessageResult.Status.SUCCESS, pub.publish("to-primary", opts).getStatus());
+            assertEquals(Arrays.asList("to-primary"),
+                    TestBrokers.drainQueue(TestBrokers.vmUrl("failover-primary"), 1, 5000));
+
+            TestBrokers.stop(this.primary);
+            this.primary = null;
+            assertEquals(MessageResult.Status.SUCCESS, pub.publish("to-backup", opts).getStatus());
+            assertEquals(Arrays.asList("to-backup"),
+                    TestBrokers.drainQueue(TestBrokers.vmUrl("failover-backup"), 1, 5000));
+        }
+    }
+
+    /**
+     * With every broker down, a send must give up after the failover timeout instead of blocking forever
+     */
+    @Test(timeout = 60000)
+    public void publishFailsWithinTheTimeoutWhenEveryBrokerIsDown() throws Exception {
+        this.startBrokers();
+        try (CIBusPublisher pub = new CIBusPublisher(this.config(2000L))) {
+            JMSMessageOptions opts = new JMSMessageOptions("test");
+            assertEquals(MessageResult.Status.SUCCESS, pub.publish("warm-up", opts).getStatus());
+
+            TestBrokers.stop(this.primary);
+            TestBrokers.stop(this.backup);
+            this.primary = null;
+            this.backup = null;
+
+            long start = System.currentTimeMillis();
+            MessageResult<String> result = pub.publish("nowhere", opts);
+            long took = System.currentTimeMillis() - start;
+            assertEquals(MessageResult.Status.JMS_EXCEPTION, result.getStatus());
+            assertTrue("send took " + took + "ms", took < 15000);
+        }
+    }
+
+    /**
+     * Stops the primary while a stream of persistent messages is being published.  Every publish must succeed, and
+     * every message must be on one of the brokers: the ones the primary took before it went down are still in its
+     * store, the rest went to the backup.
+     */
+    @Test(timeout = 120000)
+    public void noMessageIsLostWhenThePrimaryStopsMidStream() throws Exception {
+        File primaryData = this.tmp.newFolder("primary");
+        this.primary = TestBrokers.start("failover-primary", primaryData, this.primaryTcp);
+        this.backup = TestBrokers.start("failover-backup", this.tmp.newFolder("backup"), this.backupTcp);
+
+        int count = 200;
+        JMSMessageOptions opts = new JMSMessageOptions("test");
+        opts.mode = DeliveryMode.PERSISTENT;
+        Thread stopper = new Thread(() -> {
+            try {
+                TestBrokers.stop(this.primary);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        List<String> sent = new ArrayList<>();
+        try (CIBusPublisher pub = new CIBusPublisher(this.config(10000L))) {
+            for (int i = 0; i < count; i++) {
+                // Stop the primary on another thread, so the sends after this one race its shutdown
+                if (i == count / 2)
+                    stopper.start();
+                String body = "message-" + i;
+                MessageResult<String> result = pub.publish(body, opts);
+                assertEquals(body, MessageResult.Status.SUCCESS, result.getStatus());
+                sent.add(body);
+            }
+        }
+        stopper.join();
+
+        Set<String> received = new HashSet<>(
+                TestBrokers.drainQueue(TestBrokers.vmUrl("failover-backup"), 2 * count, 2000));
+        assertFalse("nothing failed over to the backup", received.isEmpty());
+        this.primary = TestBrokers.start("failover-primary", primaryData);
+        received.addAll(TestBrokers.drainQueue(TestBrokers.vmUrl("failover-primary"), 2 * count, 2000));
+        assertEquals(new HashSet<>(sent), received);
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class MessageRouterTest {
+    private static MessageHandler<String> handler(String name) {
+        return node -> new MessageResult<>(name, node, MessageResult.Status.SUCCESS);
+    }
+
+    private static Message message(String... properties) throws JMSException {
+        ActiveMQTextMessage msg = new ActiveMQTextMessage();
+        for (int i = 0; i < properties.length; i += 2)
+            msg.setStringProperty(properties[i], properties[i + 1]);
+        return msg;
+    }
+
+    @Test
+    public void anEmptyRouterMatchesNothing() throws JMSException {
+        MessageRouter<String> router = new MessageRouter<>();
+        assertTrue(router.isEmpty());
+        assertTrue(router.route(message("rhsm_qe", "xunit_importer")).isEmpty());
+    }
+
+    @Test
+    public void routesOnPropertyValue() throws JMSException {
+        MessageRouter<String> router = new MessageRouter<>();
+        MessageHandler<String> xunit = handler("xunit");
+        MessageHandler<String> testcase = handler("testcase");
+        router.addRoute("rhsm_qe", "xunit_importer", xunit);
+        router.addRoute("rhsm_qe", "testcase_importer", testcase);
+        assertFalse(router.isEmpty());
+
+        assertEquals(Collections.singletonList(xunit), router.route(message("rhsm_qe", "xunit_importer")));
+        assertEquals(Collections.singletonList(testcase), router.route(message("rhsm_qe", "testcase_importer")));
+        assertTrue(router.route(message("rhsm_qe", "other")).isEmpty());
+        assertTrue(router.route(message("job-id", "xunit_importer")).isEmpty());
+        assertTrue(router.route(message()).isEmpty());
+    }
+
+    @Test
+    public void nonStringPropertiesMatchTheirStringForm() throws JMSException {
+        MessageRouter<String> router = new MessageRouter<>();
+        MessageHandler<String> h = handler("build");
+        router.addRoute("build", "42", h);
+        ActiveMQTextMessage msg = new ActiveMQTextMessage();
+        msg.setIntProperty("build", 42);
+        assertEquals(Collections.singletonList(h), router.route(msg));
+    }
+
+    @Test
+    public void aMessageMatchingSeveralRoutesGetsEveryHandler() throws JMSException {
+        MessageRouter<String> router = new MessageRouter<>();
+        MessageHandler<String> a = handler("a");
+        MessageHandler<String> b = handler("b");
+        MessageHandler<String> job = handler("job");
+        router.addRoute("rhsm_qe", "xunit_importer", a);
+        router.addRoute("rhsm_qe", "xunit_importer", b);
+        router.addRoute("job-id", "1234", job);
+
+        List<MessageHandler<String>> matched = router.route(message("rhsm_qe", "xunit_importer", "job-id", "1234"));
+        assertEquals(3, matched.size());
+        assertEquals(new HashSet<>(Arrays.asList(a, b, job)), new HashSet<>(matched));
+        // Handlers under the same route keep the order they were added in
+        assertTrue(matched.indexOf(a) < matched.indexOf(b));
+    }
+
+    @Test
+    public void removingARoute() throws JMSException {
+        MessageRouter<String> router = new MessageRouter<>();
+        MessageHandler<String> a = handler("a");
+        MessageHandler<String> b = handler("b");
+        router.addRoute("job-id", "1", a);
+        router.addRoute("job-id", "1", b);
+        long version = router.getVersion();
+
+        assertTrue(router.removeRoute("job-id", "1", a));
+        assertTrue(router.getVersion() > version);
+        assertEquals(Collections.singletonList(b), router.route(message("job-id", "1")));
+
+        version = router.getVersion();
+        assertFalse(router.removeRoute("job-id", "1", a));
+        assertFalse(router.removeRoute("job-id", "2", b));
+        assertFalse(router.removeRoute("no-such-property", "1", b));
+        assertEquals(version, router.getVersion());
+
+        assertTrue(router.removeRoute("job-id", "1", b));
+        assertTrue(router.isEmpty());
+        assertTrue(router.route(message("job-id", "1")).isEmpty());
+    }
+
+    @Test
+    public void addingARouteChangesTheVersion() {
+        MessageRouter<String> router = new MessageRouter<>();
+        long version = router.getVersion();
+        router.addRoute("job-id", "1", handler("a"));
+        assertTrue(router.getVersion() > version);
+    }
+
+    @Test
+    public void requiredPathsIsTheUnionOfEveryHandlersPaths() {
+        MessageRouter<String> router = new MessageRouter<>();
+        assertTrue(router.requiredPaths().isEmpty());
+        router.addRoute("rhsm_qe", "xunit_importer", MessageHandler.withPaths(handler("a"), "status", "log-url"));
+        router.addRoute("job-id", "1", MessageHandler.withPaths(handler("b"), "import-results[].status"));
+        assertEquals(new HashSet<>(Arrays.asList("status", "log-url", "import-results[].status")),
+                router.requiredPaths());
+
+        // A handler that needs the whole message means nothing can be skipped
+        router.addRoute("job-id", "2", handler("whole"));
+        assertTrue(router.requiredPaths().isEmpty());
+    }
+
+    /**
+     * One thread keeps emptying the handler list of a value while another adds to it, and none of the added handlers
+     * may be lost with an emptied list
+     */
+    @Test(timeout = 30000)
+    public void removingTheLastHandlerDoesNotDropOneBeingAdded() throws Exception {
+        MessageRouter<String> router = new MessageRouter<>();
+        int count = 20000;
+        List<MessageHandler<String>> kept = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            kept.add(handler("kept-" + i));
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean adding = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread churn = new Thread(() -> {
+            try {
+                start.await();
+                while (adding.get()) {
+                    MessageHandler<String> h = handler("churn");
+                    router.addRoute("job-id", "1", h);
+                    if (!router.removeRoute("job-id", "1", h))
+                        throw new AssertionError("could not remove a route just added");
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        churn.start();
+        start.countDown();
+        for (MessageHandler<String> h : kept)
+            router.addRoute("job-id", "1", h);
+        adding.set(false);
+        churn.join();
+
+        assertNull(failure.get());
+        assertEquals(new HashSet<>(kept), new HashSet<>(router.route(message("job-id", "1"))));
+        assertEquals(count, router.route(message("job-id", "1")).size());
+    }
+
+    /**
+     * Routes are added and removed on one thread while another routes, which must never fail or see a handler that
+     * was never added
+     */
+    @Test(timeout = 30000)
+    public void routesCanChangeWhileRouting() throws Exception {
+        MessageRouter<String> router = new MessageRouter<>();
+        MessageHandler<String> fixed = handler("fixed");
+        router.addRoute("rhsm_qe", "xunit_importer", fixed);
+        List<MessageHandler<String>> added = Collections.synchronizedList(new ArrayList<>());
+        Message msg = message("rhsm_qe", "xunit_importer", "job-id", "1");
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread routing = new Thread(() -> {
+            started.countDown();
+            try {
+                while (running.get()) {
+                    List<MessageHandler<String>> matched = router.route(msg);
+                    if (!matched.contains(fixed))
+                        throw new AssertionError("lost the fixed route");
+                    for (MessageHandler<String> h : matched)
+                        if (h != fixed && !added.contains(h))
+                            throw new AssertionError("routed to a handler that was never added");
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        routing.start();
+        started.await();
+        for (int i = 0; i < 20000; i++) {
+            MessageHandler<String> h = handler("job-" + i);
+            added.add(h);
+            router.addRoute("job-id", "1", h);
+            assertTrue(router.removeRoute("job-id", "1", h));
+        }
+        running.set(false);
+        routing.join();
+        assertNull(failure.get());
+        assertEquals(Collections.singletonList(fixed), router.route(msg));
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OutboxTest {
+    private static final String URL_A = "tcp://broker-a.example.com:61616";
+    private static final String URL_B = "tcp://broker-b.example.com:61616";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private BrokerService brokerA;
+    private BrokerService brokerB;
+
+    @After
+    public void tearDown() throws Exception {
+        TestBrokers.stop(this.brokerA);
+        TestBrokers.stop(this.brokerB);
+    }
+
+    private static OutboxRecord record(String url, String body) {
+        return new OutboxRecord(url, body, new JMSMessageOptions("test"));
+    }
+
+    private static Path lane(Path dir) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "lane-*")) {
+            return ds.iterator().next();
+        }
+    }
+
+    @Test
+    public void appendKeepsAPendingCountPerUrl() throws IOException {
+        try (Outbox outbox = new Outbox(this.tmp.getRoot().toPath())) {
+            outbox.append(record(URL_A, "a1"));
+            outbox.append(record(URL_A, "a2"));
+            outbox.append(record(URL_B, "b1"));
+
+            assertEquals(3, outbox.getPending());
+            assertEquals(2, outbox.getPending(URL_A));
+            assertEquals(1, outbox.getPending(URL_B));
+            assertEquals(0, outbox.getPending("tcp://elsewhere:61616"));
+
+            List<OutboxLog.Entry> entries = outbox.peek(URL_A, 10);
+            assertEquals(2, entries.size());
+            assertEquals("a1", entries.get(0).record.getBody());
+            assertEquals("a2", entries.get(1).record.getBody());
+        }
+    }
+
+    @Test
+    public void reopenRestoresEveryLane() throws IOException {
+        Path dir = this.tmp.getRoot().toPath();
+        try (Outbox outbox = new Outbox(dir)) {
+            outbox.append(record(URL_A, "a1"));
+            outbox.append(record(URL_B, "b1"));
+        }
+        try (Outbox outbox = new Outbox(dir)) {
+            assertEquals(1, outbox.getPending(URL_A));
+            assertEquals(1, outbox.getPending(URL_B));
+            assertEquals("b1", outbox.peek(URL_B, 1).get(0).record.getBody());
+        }
+    }
+
+    @Test
+    public void recoveryDropsARecordWithABadCrc() throws IOException {
+        Path dir = this.tmp.getRoot().toPath();
+        try (Outbox outbox = new Outbox(dir)) {
+            for (String body : Arrays.asList("one", "two", "three"))
+                outbox.append(record(URL_A, body));
+        }
+
+        // Flip the last byte of the last record, as if the write was torn
+        Path seg = lane(dir).resolve("outbox-0.log");
+        try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, ch.size() - 1);
+            b.flip();
+            byte last = b.get();
+            ch.write(ByteBuffer.wrap(new byte[] { (byte) ~last }), ch.size() - 1);
+        }
+        long before = Files.size(seg);
+
+        try (Outbox outbox = new Outbox(dir)) {
+            assertEquals(2, outbox.getPending(URL_A));
+            List<OutboxLog.Entry> entries = outbox.peek(URL_A, 10);
+            assertEquals(2, entries.size());
+            assertEquals("two", entries.get(1).record.getBody());
+            assertTrue(Files.size(seg) < before);
+
+            // New records go after the good ones
+            outbox.append(record(URL_A, "four"));
+            assertEquals("four", outbox.peek(URL_A, 10).get(2).record.getBody());
+        }
+    }
+
+    @Test
+    public void recoveryDropsATruncatedRecord() throws IOException {
+        Path dir = this.tmp.getRoot().toPath();
+        try (Outbox outbox = new Outbox(dir)) {
+            outbox.append(record(URL_A, "one"));
+            outbox.append(record(URL_A, "two"));
+        }
+        Path seg = lane(dir).resolve("outbox-0.log");
+        try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+        try (Outbox outbox = new Outbox(dir)) {
+            assertEquals(1, outbox.getPending(URL_A));
+        }
+    }
+
+    @Test
+    public void advanceSurvivesAReopen() throws IOException {
+        Path dir = this.tmp.getRoot().toPath();
+        try (OutboxLog log = new OutboxLog(dir, 256L, false)) {
+            for (int i = 0; i < 10; i++)
+                log.append(record(URL_A, "message-" + i));
+            List<OutboxLog.Entry> sent = log.peek(4);
+            log.advance(sent.get(3), 4);
+            assertEquals(6, log.getPending());
+        }
+        try (OutboxLog log = new OutboxLog(dir, 256L, false)) {
+            assertEquals(6, log.getPending());
+            assertEquals("message-4", log.peek(1).get(0).record.getBody());
+            List<OutboxLog.Entry> rest = log.peek(10);
+            log.advance(rest.get(rest.size() - 1), rest.size());
+            assertEquals(0, log.getPending());
+        }
+    }
+
+    /**
+     * Publishes to a broker that goes away and comes back, while a second broker stays up the whole time
+     */
+    @Test(timeout = 60000)
+    public void drainsToABrokerOnceItIsBackWithoutHoldingUpOthers() throws Exception {
+        String urlA = TestBrokers.vmUrl("outbox-a");
+        String urlB = TestBrokers.vmUrl("outbox-b");
+        this.brokerA = TestBrokers.start("outbox-a");
+        this.brokerB = TestBrokers.start("outbox-b");
+
+        CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(urlA));
+        Broker b = new Broker(urlB, "", "", 5000L, 1);
+        Outbox outbox = new Outbox(this.tmp.getRoot().toPath());
+        try {
+            pub.setOutbox(outbox);
+            JMSMessageOptions opts = new JMSMessageOptions("test");
+            assertEquals(MessageResult.Status.SUCCESS, pub.publish("before", opts).getStatus());
+            assertEquals(Arrays.asList("before"), TestBrokers.drainQueue(urlA, 1, 5000));
+
+            TestBrokers.stop(this.brokerA);
+            assertEquals(MessageResult.Status.PENDING, pub.publish("first", opts).getStatus());
+            assertEquals(MessageResult.Status.PENDING, pub.publish("second", opts).getStatus());
+            assertEquals(2, outbox.getPending(urlA));
+
+            // The other broker neither waits for broker A nor has its messages stored behind them
+            MessageResult<String> other = pub.publish("other", b, opts);
+            assertEquals(MessageResult.Status.SUCCESS, other.getStatus());
+            assertNotNull(other.info);
+            assertEquals(0, outbox.getPending(urlB));
+            assertEquals(Arrays.asList("other"), TestBrokers.drainQueue(urlB, 1, 5000));
+
+            // Nothing is lost while the broker stays down
+            Thread.sleep(2 * Outbox.DEFAULT_DRAIN_INTERVAL);
+            assertEquals(2, outbox.getPending(urlA));
+
+            this.brokerA = TestBrokers.start("outbox-a");
+            long deadline = System.currentTimeMillis() + 30000;
+            while (outbox.getPending(urlA) > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(100);
+            assertEquals(0, outbox.getPending(urlA));
+            assertEquals(Arrays.asList("first", "second"), TestBrokers.drainQueue(urlA, 3, 2000));
+        } finally {
+            outbox.close();
+            pub.close();
+        }
+    }
+
+    /**
+     * A plugin that makes the broker turn down the first message it is sent whose body contains "poison"
+     */
+    private static BrokerPlugin rejectFirstPoison(AtomicInteger rejected) {
+        return broker -> new BrokerFilter(broker) {
+            @Override
+            public void send(ProducerBrokerExchange exchange, org.apache.activemq.command.Message msg)
+                    throws Exception {
+                if (msg instanceof ActiveMQTextMessage) {
+                    String text = ((ActiveMQTextMessage) msg).getText();
+                    if (text.contains("poison") && rejected.getAndIncrement() == 0)
+                        throw new JMSException("Rejecting " + text);
+                }
+                super.send(exchange, msg);
+            }
+        };
+    }
+
+    /**
+     * Drains six records in batches of two to a broker that turns down the third record once.  Nothing after it may
+     * be sent by the first drain, and the second drain must send the rest exactly once, in order.
+     */
+    private void drainStopsAtAFailedSend(String name, BatchOptions batch, JMSMessageOptions opts) throws Exception {
+        AtomicInteger rejected = new AtomicInteger(0);
+        this.brokerA = TestBrokers.start(name, new BrokerPlugin[] { rejectFirstPoison(rejected) });
+        String url = TestBrokers.vmUrl(name);
+        List<String> bodies = Arrays.asList("m0", "m1", "m2-poison", "m3", "m4", "m5");
+
+        CIBusPublisher pub = new CIBusPublisher(TestBrokers.config(url));
+        try (Outbox outbox = new Outbox(this.tmp.getRoot().toPath())) {
+            for (String body : bodies)
+                outbox.append(new OutboxRecord(url, body, opts));
+
+            assertEquals(2, outbox.drain(pub, batch));
+            assertEquals(1, rejected.get());
+            assertEquals(4, outbox.getPending(url));
+            assertEquals("m2-poison", outbox.peek(url, 1).get(0).record.getBody());
+            assertEquals(bodies.subList(0, 2), TestBrokers.drainQueue(url, bodies.size(), 1000));
+
+            assertEquals(4, outbox.drain(pub, batch));
+            assertEquals(0, outbox.getPending(url));
+            assertEquals(bodies.subList(2, 6), TestBrokers.drainQueue(url, bodies.size(), 1000));
+        } finally {
+            pub.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void aTransactedDrainStopsAtAFailedSend() throws Exception {
+        this.drainStopsAtAFailedSend("outbox-tx", new BatchOptions(2, 60000L), new JMSMessageOptions("test"));
+    }
+
+    @Test(timeout = 60000)
+    public void anUntransactedDrainStopsAtAFailedSend() throws Exception {
+        // Persistent, since a non-persistent message outside a transaction is sent without waiting for the broker
+        JMSMessageOptions opts = new JMSMessageOptions("test");
+        opts.mode = DeliveryMode.PERSISTENT;
+        this.drainStopsAtAFailedSend("outbox-each", new BatchOptions(2, 60000L).setTransacted(false), opts);
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that what PathExtractor keeps is exactly what a full tree parse of the same text holds at those paths
+ */
+public class PathExtractorTest {
+    private static final String BODY = "{" +
+            "\"status\": \"passed\"," +
+            "\"log-url\": \"https://polarion.example.com/import/xunit-queue/log-1234\"," +
+            "\"import-results\": [" +
+            "  {\"name\": \"testA\", \"status\": \"passed\", \"id\": \"PROJ-1\", \"extra\": {\"deep\": [1, 2, 3]}}," +
+            "  {\"name\": \"testB\", \"status\": \"failed\", \"id\": \"PROJ-2\"}," +
+            "  {\"name\": \"testC\", \"status\": \"passed\", \"id\": null}" +
+            "]," +
+            "\"testrun-url\": {\"href\": \"https://polarion.example.com/run/1\", \"title\": \"run 1\"}," +
+            "\"message\": \"ok\"," +
+            "\"counts\": [3, 2, 1]" +
+            "}";
+
+    private static JsonNode tree(String json) throws IOException {
+        return Json.MAPPER.readTree(json);
+    }
+
+    @Test
+    public void noPathsKeepsTheWholeTree() throws IOException {
+        JsonNode extracted = new PathExtractor(Collections.emptyList()).extract(BODY);
+        assertEquals(tree(BODY), extracted);
+    }
+
+    @Test
+    public void topLevelScalars() throws IOException {
+        JsonNode full = tree(BODY);
+        JsonNode extracted = new PathExtractor(Arrays.asList("status", "log-url")).extract(BODY);
+        assertEquals(full.get("status"), extracted.get("status"));
+        assertEquals(full.get("log-url"), extracted.get("log-url"));
+        assertEquals(2, extracted.size());
+    }
+
+    @Test
+    public void theValueAtTheEndOfAPathIsKeptWhole() throws IOException {
+        JsonNode full = tree(BODY);
+        JsonNode extracted = new PathExtractor(Arrays.asList("import-results", "testrun-url")).extract(BODY);
+        assertEquals(full.get("import-results"), extracted.get("import-results"));
+        assertEquals(full.get("testrun-url"), extracted.get("testrun-url"));
+        assertEquals(2, extracted.size());
+    }
+
+    @Test
+    public void aFieldOfEveryArrayElement() throws IOException {
+        JsonNode full = tree(BODY);
+        JsonNode extracted = new PathExtractor(Arrays.asList("import-results[].status", "import-results[].id"))
+                .extract(BODY);
+        JsonNode results = extracted.get("import-results");
+        assertEquals(full.get("import-results").size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            JsonNode expected = full.get("import-results").get(i);
+            assertEquals(expected.get("status"), results.get(i).get("status"));
+            assertEquals(expected.get("id"), results.get(i).get("id"));
+            assertNull(results.get(i).get("name"));
+            assertNull(results.get(i).get("extra"));
+        }
+        assertEquals(1, extracted.size());
+    }
+
+    @Test
+    public void aNestedField() throws IOException {
+        JsonNode full = tree(BODY);
+        JsonNode extracted = new PathExtractor(Collections.singletonList("testrun-url.href")).extract(BODY);
+        assertEquals(full.at("/testrun-url/href"), extracted.at("/testrun-url/href"));
+        assertTrue(extracted.at("/testrun-url/title").isMissingNode());
+    }
+
+    @Test
+    public void pathsThatOverlap() throws IOException {
+        JsonNode full = tree(BODY);
+        // The shorter path asks for the whole array, which covers the longer one
+        JsonNode extracted = new PathExtractor(Arrays.asList("import-results[].status", "import-results[]"))
+                .extract(BODY);
+        assertEquals(full.get("import-results"), extracted.get("import-results"));
+    }
+
+    @Test
+    public void missingPathsAreLeftOut() throws IOException {
+        JsonNode extracted = new PathExtractor(Arrays.asList("no-such-field", "status")).extract(BODY);
+        assertNull(extracted.get("no-such-field"));
+        assertEquals(tree(BODY).get("status"), extracted.get("status"));
+    }
+
+    @Test
+    public void aScalarWhereAContainerWasExpectedIsKept() throws IOException {
+        JsonNode full = tree(BODY);
+        JsonNode extracted = new PathExtractor(Arrays.asList("message.text", "counts[].value")).extract(BODY);
+        assertEquals(full.get("message"), extracted.get("message"));
+        assertEquals(full.get("counts"), extracted.get("counts"));
+    }
+
+    @Test
+    public void emptyText() throws IOException {
+        assertNull(new PathExtractor(Collections.singletonList("status")).extract(""));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidJson() throws IOException {
+        new PathExtractor(Collections.singletonList("status")).extract("{\"status\": ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anEmptySegmentIsRejected() {
+        new PathExtractor(Collections.singletonList("import-results..status"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQQueue;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embedded brokers and helpers shared by the tests that need a real broker
+ */
+public class TestBrokers {
+    /**
+     * Consumer queue of the default publish topic, so a consumer on it sees what CIBusPublisher sends
+     */
+    public static final String CONSUMER_QUEUE = "Consumer.test.VirtualTopic.qe.ci.jenkins";
+
+    /**
+     * Starts a non-persistent broker without JMX, reachable at vm://name?create=false.  The consumer queue of the
+     * default publish topic is created up front, so messages published before anyone consumes are kept.
+     *
+     * @param name name of the broker
+     * @param connectors extra transport connectors, eg tcp://localhost:61616
+     */
+    public static BrokerService start(String name, String... connectors) throws Exception {
+        return start(name, new BrokerPlugin[0], connectors);
+    }
+
+    /**
+     * Like start, with plugins installed in the broker, eg to make it reject some messages
+     */
+    public static BrokerService start(String name, BrokerPlugin[] plugins, String... connectors) throws Exception {
+        return start(name, plugins, null, connectors);
+    }
+
+    /**
+     * Like start, but persistent, keeping its store in dataDir.  A broker started again on the same dataDir still has
+     * the messages nobody consumed.
+     */
+    public static BrokerService start(String name, File dataDir, String... connectors) throws Exception {
+        return start(name, new BrokerPlugin[0], dataDir, connectors);
+    }
+
+    private static BrokerService
+    start(String name, BrokerPlugin[] plugins, File dataDir, String... connectors) throws Exception {
+        BrokerService service = new BrokerService();
+        service.setBrokerName(name);
+        service.setPersistent(dataDir != null);
+        if (dataDir != null)
+            service.setDataDirectoryFile(dataDir);
+        service.setUseJmx(false);
+        service.setUseShutdownHook(false);
+        service.setDestinations(new ActiveMQDestination[] { new ActiveMQQueue(CONSUMER_QUEUE) });
+        if (plugins.length > 0)
+            service.setPlugins(plugins);
+        for (String c : connectors)
+            service.addConnector(c);
+        service.start();
+        service.waitUntilStarted();
+        return service;
+    }
+
+    public static void stop(BrokerService service) throws Exception {
+        if (service == null)
+            return;
+        service.stop();
+        service.waitUntilStopped();
+    }
+
+    public static String vmUrl(String name) {
+        return String.format("vm://%s?create=false", name);
+    }
+
+    /**
+     * @return a port nothing is listening on right now, for a tcp connector that must keep its port across restarts
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /**
+     * @param url broker url
+     * @return a config with a single broker named ci and no credentials
+     */
+    public static BrokerConfig config(String url) {
+        return new BrokerConfig("ci", url, "", "", 5000L, 1);
+    }
+
+    /**
+     * Reads the bodies of the TextMessages on the consumer queue, waiting up to timeout for each
+     *
+     * @param url broker url
+     * @param max most messages to read
+     * @param timeout milliseconds to wait for each message
+     * @return the bodies, in the order they were received
+     */
+    public static List<String> drainQueue(String url, int max, long timeout) throws JMSException {
+        return drainQueue(url, CONSUMER_QUEUE, max, timeout);
+    }
+
+    public static List<String> drainQueue(String url, String queue, int max, long timeout) throws JMSException {
+        List<String> bodies = new ArrayList<>();
+        Connection conn = new ActiveMQConnectionFactory(url).createConnection();
+        try {
+            conn.start();
+            Session session = conn.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue(queue));
+            while (bodies.size() < max) {
+                Message msg = consumer.receive(timeout);
+                if (msg == null)
+                    break;
+                bodies.add(((TextMessage) msg).getText());
+            }
+        } finally {
+            conn.close();
+        }
+        return bodies;
+    }
+}
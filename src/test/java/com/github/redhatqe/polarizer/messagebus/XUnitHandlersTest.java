@@ -0,0 +1,112 @@
+package com.github.redhatqe.polarizer.messagebus;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.redhatqe.polarizer.messagebus.config.BrokerConfig;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs xunitMsgHandler and xunitTypedHandler on the same XUnit importer replies, which must give the same results
+ */
+public class XUnitHandlersTest {
+    private static final List<String> REPLIES = Arrays.asList(
+            // passed
+            "{\"status\": \"passed\", \"testrun-url\": \"https://polarion.example.com/run/1\", " +
+                    "\"log-url\": \"https://polarion.example.com/log/1\", \"import-results\": [" +
+                    "{\"suite-name\": \"suiteA\", \"status\": \"passed\"}]}",
+            // passed, but no testrun-url
+            "{\"status\": \"passed\", \"log-url\": \"https://polarion.example.com/log/2\"}",
+            // some suites failed
+            "{\"status\": \"failed\", \"import-results\": [" +
+                    "{\"suite-name\": \"suiteA\", \"status\": \"passed\"}," +
+                    "{\"suite-name\": \"suiteB\", \"status\": \"failed\"}," +
+                    "{\"status\": \"failed\"}," +
+                    "{\"suite-name\": \"suiteC\", \"status\": \"failed\", \"extra\": [1, 2]}]}",
+            // failed before any suite was imported
+            "{\"status\": \"failed\", \"message\": \"Could not \\\"parse\\\" the xunit file\"}",
+            // failed, and no message either
+            "{\"status\": \"failed\"}",
+            // no status at all
+            "{\"testrun-url\": \"https://polarion.example.com/run/3\"}"
+    );
+
+    private static MessageResult<DefaultResult> untyped(String reply) throws IOException {
+        ObjectNode node = Json.NODES.objectNode();
+        node.set("root", Json.TREE_READER.readTree(reply));
+        return CIBusListener.xunitMsgHandler().handle(node);
+    }
+
+    private static MessageResult<DefaultResult> typed(String reply) throws IOException {
+        XUnitImportResult payload = Json.readerFor(XUnitImportResult.class).readValue(reply);
+        return CIBusListener.xunitTypedHandler().handle(payload, reply);
+    }
+
+    @Test
+    public void bothHandlersGiveTheSameResults() throws IOException {
+        for (String reply : REPLIES) {
+            MessageResult<DefaultResult> untyped = untyped(reply);
+            MessageResult<DefaultResult> typed = typed(reply);
+            assertEquals(reply, untyped.getStatus(), typed.getStatus());
+            assertEquals(reply, untyped.getErrorDetails(), typed.getErrorDetails());
+            if (untyped.info.getText() == null)
+                assertNull(reply, typed.info.getText());
+            else
+                assertEquals(reply, Json.TREE_READER.readTree(untyped.info.getText()),
+                        Json.TREE_READER.readTree(typed.info.getText()));
+        }
+    }
+
+    @Test
+    public void eachReplyGetsTheExpectedStatus() throws IOException {
+        List<MessageResult.Status> expected = Arrays.asList(
+                MessageResult.Status.SUCCESS,
+                MessageResult.Status.NP_EXCEPTION,
+                MessageResult.Status.FAILED,
+                MessageResult.Status.EMPTY_MESSAGE,
+                MessageResult.Status.NP_EXCEPTION,
+                MessageResult.Status.NP_EXCEPTION);
+        for (int i = 0; i < REPLIES.size(); i++)
+            assertEquals(REPLIES.get(i), expected.get(i), typed(REPLIES.get(i)).getStatus());
+        assertEquals("TestSuites failed to be updated: suiteB,suiteC", typed(REPLIES.get(2)).getErrorDetails());
+        assertEquals("\"Could not \\\"parse\\\" the xunit file\"", typed(REPLIES.get(3)).getErrorDetails());
+    }
+
+    @Test
+    public void theTypedHandlerKeepsTheReplyAsReceived() throws IOException {
+        String reply = REPLIES.get(0);
+        assertEquals(reply, typed(reply).info.getText());
+    }
+
+    @Test
+    public void unknownFieldsAreIgnored() throws IOException {
+        XUnitImportResult payload = Json.readerFor(XUnitImportResult.class).readValue(REPLIES.get(0));
+        assertEquals("passed", payload.getStatus());
+        assertEquals("https://polarion.example.com/run/1", payload.getTestrunUrl());
+        assertEquals(1, payload.getImportResults().size());
+        assertEquals("suiteA", payload.getImportResults().get(0).getSuiteName());
+        assertTrue(payload.failedSuites().isEmpty());
+    }
+
+    @Test
+    public void inStreamingModeTheSuccessTextIsStillTheWholeReply() throws IOException, JMSException {
+        String reply = REPLIES.get(0);
+        // parseMessage never connects, so the url doesn't need to point at a running broker
+        BrokerConfig cfg = new BrokerConfig("ci", "vm://xunit-handlers?create=false", "", "", 1000L, 1);
+        CIBusListener<DefaultResult> listener = new CIBusListener<>(CIBusListener.xunitMsgHandler(), cfg);
+        listener.setStreaming(true);
+        ActiveMQTextMessage msg = new ActiveMQTextMessage();
+        msg.setText(reply);
+
+        MessageResult<DefaultResult> result = CIBusListener.xunitMsgHandler().handle(listener.parseMessage(msg));
+        assertEquals(MessageResult.Status.SUCCESS, result.getStatus());
+        assertEquals(Json.TREE_READER.readTree(reply), Json.TREE_READER.readTree(result.info.getText()));
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.redhatqe.polarizer.messagebus.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.redhatqe.polarizer.messagebus.utils.Json;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BrokerTest {
+    @Test
+    public void weightAndTuningAreLeftOutUnlessSet() throws IOException {
+        Broker broker = new Broker("tcp://localhost:61616", "user", "pw", 60000L, 1);
+        JsonNode node = Json.MAPPER.readTree(Json.WRITER.writeValueAsString(broker));
+        assertEquals("tcp://localhost:61616", node.get("url").textValue());
+        assertFalse(node.has("weight"));
+        assertFalse(node.has("tuning"));
+
+        // Looking the tuning up creates it, which must not make it show up either
+        broker.getTuning();
+        node = Json.MAPPER.readTree(Json.WRITER.writeValueAsString(broker));
+        assertFalse(node.has("tuning"));
+    }
+
+    @Test
+    public void weightAndTuningRoundTripWhenSet() throws IOException {
+        Broker broker = new Broker("tcp://localhost:61616", "user", "pw", 60000L, 1);
+        broker.setWeight(3);
+        broker.getTuning().setPrefetch(500);
+        String text = Json.WRITER.writeValueAsString(broker);
+        JsonNode node = Json.MAPPER.readTree(text);
+        assertEquals(3, node.get("weight").intValue());
+        assertEquals(500, node.at("/tuning/prefetch").intValue());
+
+        Broker read = Json.MAPPER.readValue(text, Broker.class);
+        assertEquals(Integer.valueOf(3), read.getWeight());
+        assertEquals(Integer.valueOf(500), read.getTuning().getPrefetch());
+    }
+
+    @Test
+    public void aBrokerWithoutWeightOrTuningReadsWithTheDefaults() throws IOException {
+        Broker read = Json.MAPPER.readValue("{\"url\": \"tcp://localhost:61616\"}", Broker.class);
+        assertEquals(Integer.valueOf(1), read.getWeight());
+        assertTrue(read.getTuning().isUnset());
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.redhatqe.polarizer.messagebus.config;
+
+import com.github.redhatqe.polarizer.messagebus.exceptions.InvalidConfigError;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TuningOptsTest {
+    @Test
+    public void nothingSetResolvesToNothingSet() {
+        TuningOpts t = new TuningOpts().resolve();
+        assertNull(t.getProfile());
+        assertNull(t.getPrefetch());
+        assertNull(t.getUseAsyncSend());
+    }
+
+    @Test
+    public void aProfileFillsInWhatWasLeftOut() {
+        TuningOpts t = new TuningOpts();
+        t.setProfile(TuningOpts.THROUGHPUT);
+        t.setPrefetch(500);
+        TuningOpts resolved = t.resolve();
+        assertEquals(TuningOpts.THROUGHPUT, resolved.getProfile());
+        assertEquals(Integer.valueOf(500), resolved.getPrefetch());
+        assertEquals(Boolean.TRUE, resolved.getUseAsyncSend());
+        assertEquals(Integer.valueOf(1024 * 1024), resolved.getProducerWindowSize());
+        // resolve leaves the original alone
+        assertNull(t.getUseAsyncSend());
+    }
+
+    @Test
+    public void aSettingOverridesTheLatencyProfile() {
+        TuningOpts t = new TuningOpts();
+        t.setProfile(TuningOpts.LATENCY);
+        t.setUseCompression(true);
+        TuningOpts resolved = t.resolve();
+        assertEquals(Integer.valueOf(1), resolved.getPrefetch());
+        assertEquals(Boolean.TRUE, resolved.getUseCompression());
+        assertEquals(Boolean.FALSE, resolved.getDispatchAsync());
+    }
+
+    @Test
+    public void theLimitsAreValid() {
+        TuningOpts t = new TuningOpts();
+        t.setPrefetch(0);
+        t.validate();
+        t.setPrefetch(TuningOpts.MAX_PREFETCH);
+        t.validate();
+        t.setOptimizeAcknowledgeTimeOut(0L);
+        t.setProducerWindowSize(0);
+        t.validate();
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void anUnknownProfileIsRejected() {
+        TuningOpts t = new TuningOpts();
+        t.setProfile("fast");
+        t.resolve();
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void aNegativePrefetchIsRejected() {
+        TuningOpts t = new TuningOpts();
+        t.setPrefetch(-1);
+        t.validate();
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void aPrefetchOverTheMaxIsRejected() {
+        TuningOpts t = new TuningOpts();
+        t.setPrefetch(TuningOpts.MAX_PREFETCH + 1);
+        t.validate();
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void aNegativeAckTimeoutIsRejected() {
+        TuningOpts t = new TuningOpts();
+        t.setOptimizeAcknowledgeTimeOut(-1L);
+        t.validate();
+    }
+
+    @Test(expected = InvalidConfigError.class)
+    public void aNegativeProducerWindowIsRejected() {
+        TuningOpts t = new TuningOpts();
+        t.setProducerWindowSize(-1);
+        t.validate();
+    }
+}
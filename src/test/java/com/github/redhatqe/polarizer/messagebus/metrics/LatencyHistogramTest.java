@@ -0,0 +1,108 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    /**
+     * Every reported value is the low end of its bucket, so it is at most 1/64th below what was recorded
+     */
+    private static void assertClose(long expected, long actual) {
+        assertTrue(String.format("%d is above %d", actual, expected), actual <= expected);
+        assertTrue(String.format("%d is too far below %d", actual, expected), expected - actual <= expected / 64);
+    }
+
+    @Test
+    public void anEmptyHistogramReportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(50.0));
+        assertEquals(0.0, h.getMean(), 0.0);
+        assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100; v++)
+            h.record(v);
+        assertEquals(100, h.getCount());
+        assertEquals(50, h.getValueAtPercentile(50.0));
+        assertEquals(90, h.getValueAtPercentile(90.0));
+        assertEquals(100, h.getValueAtPercentile(100.0));
+        assertEquals(1, h.getValueAtPercentile(0.0));
+        assertEquals(50.5, h.getMean(), 1e-9);
+        assertEquals(100, h.getMax());
+    }
+
+    @Test
+    public void largeValuesAreWithinTheBucketPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++)
+            h.record(v);
+        assertClose(50000, h.getValueAtPercentile(50.0));
+        assertClose(90000, h.getValueAtPercentile(90.0));
+        assertClose(99000, h.getValueAtPercentile(99.0));
+        assertClose(99900, h.getValueAtPercentile(99.9));
+        assertEquals(100000, h.getMax());
+    }
+
+    @Test
+    public void aPercentileNeverExceedsTheMax() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(1000);
+        assertEquals(1000, h.getValueAtPercentile(99.9));
+        h.record(1001);
+        assertTrue(h.getValueAtPercentile(100.0) <= 1001);
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        List<Long> values = new ArrayList<>();
+        for (int bit = 0; bit < 63; bit++) {
+            long p = 1L << bit;
+            values.add(p);
+            values.add(p - 1);
+            values.add(p + 1);
+            values.add(p + p / 3);
+        }
+        values.add(Long.MAX_VALUE);
+        int last = -1;
+        for (long v : values) {
+            int i = LatencyHistogram.indexOf(v);
+            assertTrue(i >= 0);
+            long low = LatencyHistogram.lowestOf(i);
+            assertClose(v, low);
+            // The next bucket starts above v
+            if (v < Long.MAX_VALUE && LatencyHistogram.indexOf(Long.MAX_VALUE) > i)
+                assertTrue(LatencyHistogram.lowestOf(i + 1) > v);
+            last = Math.max(last, i);
+        }
+        assertEquals(last, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        assertEquals(1, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(50.0));
+    }
+
+    @Test
+    public void resetEmptiesTheHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 0; v < 1000; v++)
+            h.record(v);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getValueAtPercentile(99.0));
+        h.record(7);
+        assertEquals(7, h.getValueAtPercentile(50.0));
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.redhatqe.polarizer.messagebus.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+    @Test
+    public void snapshotFlattensEveryMetric() {
+        try (MetricsRegistry registry = new MetricsRegistry()) {
+            registry.histogram("parse").record(10);
+            registry.meter("received").mark();
+            registry.counter("errors").increment();
+
+            Map<String, Number> values = registry.snapshot();
+            assertEquals(1L, values.get("parse.count"));
+            assertEquals(10L, values.get("parse.p50"));
+            assertEquals(1L, values.get("received.count"));
+            assertEquals(1L, values.get("errors"));
+        }
+    }
+
+    @Test
+    public void resetClearsHistogramsMetersAndCounters() {
+        try (MetricsRegistry registry = new MetricsRegistry()) {
+            registry.histogram("parse").record(10);
+            Meter received = registry.meter("received");
+            for (int i = 0; i < 5; i++)
+                received.mark();
+            received.tick();
+            registry.counter("errors").increment();
+
+            registry.reset();
+            Map<String, Number> values = registry.snapshot();
+            assertEquals(0L, values.get("parse.count"));
+            assertEquals(0L, values.get("received.count"));
+            assertEquals(0.0, values.get("received.rate1m").doubleValue(), 0.0);
+            assertEquals(0.0, values.get("received.rateMean").doubleValue(), 0.0);
+            assertEquals(0L, values.get("errors"));
+
+            // The first tick after a reset starts the moving average over from the new rate
+            received.mark();
+            received.tick();
+            assertEquals(1.0 / Meter.TICK_SECONDS, received.getOneMinuteRate(), 1e-9);
+        }
+    }
+
+    @Test
+    public void closeStopsTheTick() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertFalse(registry.tick.isCancelled());
+        registry.close();
+        assertTrue(registry.tick.isCancelled());
+        // Closing twice does nothing more
+        registry.close();
+        registry.meter("received").mark();
+        assertEquals(1L, registry.snapshot().get("received.count"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.redhatqe.polarizer.messagebus.pool;
+
+import com.github.redhatqe.polarizer.messagebus.config.Broker;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class FactoryCacheTest {
+    private static final String URL = "tcp://broker.example.com:61616";
+    private final AtomicInteger created = new AtomicInteger(0);
+    private final Supplier<ActiveMQConnectionFactory> create = () -> {
+        this.created.incrementAndGet();
+        return new ActiveMQConnectionFactory(URL);
+    };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        FactoryCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        FactoryCache.clear();
+    }
+
+    private static Broker broker(String keystore, String truststore) {
+        Broker b = new Broker(URL, "user", "pw", 5000L, 1);
+        b.setKeystorePath(keystore);
+        b.setTruststorePath(truststore);
+        return b;
+    }
+
+    @Test
+    public void theSameBrokerGetsTheSameFactory() {
+        Broker b = broker("/stores/a.jks", "/stores/trust-a.jks");
+        ActiveMQConnectionFactory first = FactoryCache.get(URL, b, this.create);
+        assertSame(first, FactoryCache.get(URL, b, this.create));
+        assertEquals(1, this.created.get());
+    }
+
+    /**
+     * Brokers that share a url and user but not their stores each keep their own entry, instead of rebuilding each
+     * other's every time
+     */
+    @Test
+    public void brokersWithDifferentStoresDoNotEvictEachOther() {
+        Broker a = broker("/stores/a.jks", "/stores/trust-a.jks");
+        Broker b = broker("/stores/b.jks", "/stores/trust-b.jks");
+        ActiveMQConnectionFactory fa = FactoryCache.get(URL, a, this.create);
+        ActiveMQConnectionFactory fb = FactoryCache.get(URL, b, this.create);
+        assertNotSame(fa, fb);
+        for (int i = 0; i < 5; i++) {
+            assertSame(fa, FactoryCache.get(URL, a, this.create));
+            assertSame(fb, FactoryCache.get(URL, b, this.create));
+        }
+        assertEquals(2, this.created.get());
+    }
+
+    @Test
+    public void changedSettingsRebuildTheEntry() {
+        Broker b = broker("/stores/a.jks", "/stores/trust-a.jks");
+        ActiveMQConnectionFactory first = FactoryCache.get(URL, b, this.create);
+        b.setPassword("changed");
+        assertNotSame(first, FactoryCache.get(URL, b, this.create));
+        assertEquals(2, this.created.get());
+    }
+
+    @Test
+    public void aChangedStoreFileRebuildsTheEntry() throws IOException {
+        String ssl = "ssl://broker.example.com:61617";
+        File keystore = this.tmp.newFile("keystore.jks");
+        File truststore = this.tmp.newFile("truststore.jks");
+        Broker b = broker(keystore.getPath(), truststore.getPath());
+        ActiveMQConnectionFactory first = FactoryCache.get(ssl, b, this.create);
+        assertSame(first, FactoryCache.get(ssl, b, this.create));
+
+        Files.write(truststore.toPath(), "a new certificate".getBytes(StandardCharsets.UTF_8));
+        ActiveMQConnectionFactory second = FactoryCache.get(ssl, b, this.create);
+        assertNotSame(first, second);
+        assertSame(second, FactoryCache.get(ssl, b, this.create));
+        assertEquals(2, this.created.get());
+    }
+}
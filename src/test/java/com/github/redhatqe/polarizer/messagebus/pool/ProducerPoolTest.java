@@ -0,0 +1,135 @@
+package com.github.redhatqe.polarizer.messagebus.pool;
+
+import com.github.redhatqe.polarizer.messagebus.TestBrokers;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+
+import static org.junit.Assert.*;
+
+public class ProducerPoolTest {
+    private static final String BROKER = "pool-test";
+    private BrokerService service;
+    private ProducerPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        this.service = TestBrokers.start(BROKER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.pool != null)
+            this.pool.close();
+        TestBrokers.stop(this.service);
+    }
+
+    private ProducerPool pool(Integer maxSize, Long idleTimeout, Long borrowTimeout) {
+        String url = TestBrokers.vmUrl(BROKER);
+        this.pool = new ProducerPool(url, new ActiveMQConnectionFactory(url), "pool-test",
+                new PoolSettings(maxSize, idleTimeout, borrowTimeout));
+        return this.pool;
+    }
+
+    @Test
+    public void aReturnedProducerIsReused() throws JMSException {
+        ProducerPool pool = this.pool(2, 60000L, 1000L);
+        PooledProducer first = pool.borrow();
+        first.close();
+        assertEquals(1, pool.getIdleCount());
+
+        PooledProducer second = pool.borrow();
+        assertSame(first, second);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getTotalCount());
+        second.close();
+    }
+
+    @Test
+    public void borrowTimesOutWhenThePoolIsFull() throws JMSException {
+        ProducerPool pool = this.pool(1, 60000L, 200L);
+        PooledProducer held = pool.borrow();
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrow();
+            fail("borrow should time out while the only producer is out");
+        } catch (JMSException e) {
+            assertTrue(System.currentTimeMillis() - start >= 200);
+        } finally {
+            held.close();
+        }
+        assertEquals(1, pool.getTotalCount());
+    }
+
+    @Test(timeout = 10000)
+    public void aWaitingBorrowGetsTheProducerGivenBack() throws Exception {
+        ProducerPool pool = this.pool(1, 60000L, 5000L);
+        PooledProducer held = pool.borrow();
+        Thread giver = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            held.close();
+        });
+        giver.start();
+        PooledProducer next = pool.borrow();
+        assertSame(held, next);
+        next.close();
+        giver.join();
+    }
+
+    @Test
+    public void anInvalidatedProducerIsClosedAndReplaced() throws JMSException {
+        ProducerPool pool = this.pool(1, 60000L, 1000L);
+        PooledProducer broken = pool.borrow();
+        broken.invalidate();
+        assertFalse(broken.isHealthy());
+        broken.close();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getTotalCount());
+
+        PooledProducer fresh = pool.borrow();
+        assertNotSame(broken, fresh);
+        assertTrue(fresh.isHealthy());
+        fresh.close();
+    }
+
+    @Test
+    public void idleProducersAreEvicted() throws Exception {
+        ProducerPool pool = this.pool(2, 100L, 1000L);
+        PooledProducer a = pool.borrow();
+        PooledProducer b = pool.borrow();
+        a.close();
+        b.close();
+        assertEquals(2, pool.getIdleCount());
+
+        Thread.sleep(200);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getTotalCount());
+    }
+
+    @Test(timeout = 10000)
+    public void theBackgroundEvictorRuns() throws Exception {
+        // The evictor runs every max(1000, idleTimeout / 2) ms
+        ProducerPool pool = this.pool(1, 100L, 1000L);
+        pool.borrow().close();
+        assertEquals(1, pool.getTotalCount());
+        while (pool.getTotalCount() > 0)
+            Thread.sleep(50);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test(expected = JMSException.class)
+    public void aClosedPoolRefusesToLend() throws JMSException {
+        ProducerPool pool = this.pool(1, 60000L, 1000L);
+        pool.close();
+        pool.borrow();
+    }
+}
@@ -0,0 +1,236 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class BoundedRingTest {
+    private static final int ADDERS = 4;
+    private static final int POLLERS = 4;
+    private static final int PER_ADDER = 20000;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aCapacityBelowOneIsRejected() {
+        new BoundedRing<String>(0);
+    }
+
+    @Test
+    public void anEmptyRing() {
+        BoundedRing<String> ring = new BoundedRing<>(3);
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.size());
+        assertNull(ring.poll());
+        assertTrue(ring.snapshot().isEmpty());
+        try {
+            ring.remove();
+            fail("remove on an empty ring must throw");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void addingPastCapacityDropsTheOldest() {
+        BoundedRing<Integer> ring = new BoundedRing<>(3);
+        ring.addAll(Arrays.asList(1, 2, 3, 4, 5));
+        assertEquals(3, ring.size());
+        assertEquals(Arrays.asList(3, 4, 5), ring.snapshot());
+
+        List<Integer> iterated = new ArrayList<>();
+        ring.forEach(iterated::add);
+        assertEquals(Arrays.asList(3, 4, 5), iterated);
+
+        assertEquals(Integer.valueOf(3), ring.poll());
+        assertEquals(Integer.valueOf(4), ring.remove());
+        assertEquals(1, ring.size());
+        assertEquals(Integer.valueOf(5), ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    /**
+     * The slots are reused many times over, so the sequence stamps must keep old and new elements apart
+     */
+    @Test
+    public void wrapsAroundManyTimes() {
+        BoundedRing<Integer> ring = new BoundedRing<>(4);
+        Deque<Integer> expected = new ArrayDeque<>();
+        for (int i = 0; i < 1000; i++) {
+            ring.add(i);
+            expected.addLast(i);
+            if (expected.size() > 4)
+                expected.removeFirst();
+            if (i % 3 == 0)
+                assertEquals(expected.pollFirst(), ring.poll());
+            assertEquals(new ArrayList<>(expected), ring.snapshot());
+        }
+        List<Integer> polled = new ArrayList<>();
+        Integer e;
+        while ((e = ring.poll()) != null)
+            polled.add(e);
+        assertEquals(Arrays.asList(997, 998, 999), polled);
+    }
+
+    /**
+     * Runs ADDERS threads that each add PER_ADDER values tagged with the adder's number, and POLLERS threads that poll
+     * until the adders are done.  Whatever is left is drained at the end.
+     *
+     * @return the values each poller saw, in the order it saw them, plus the final drain as the last list
+     */
+    private static List<List<Long>> addAndPoll(BoundedRing<Long> ring) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean adding = new AtomicBoolean(true);
+        List<Thread> adders = new ArrayList<>();
+        for (int a = 0; a < ADDERS; a++) {
+            long tag = (long) a << 32;
+            adders.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < PER_ADDER; i++)
+                    ring.add(tag | i);
+            }));
+        }
+        List<List<Long>> seen = new ArrayList<>();
+        List<Thread> pollers = new ArrayList<>();
+        for (int p = 0; p < POLLERS; p++) {
+            List<Long> mine = new ArrayList<>();
+            seen.add(mine);
+            pollers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (adding.get()) {
+                    Long v = ring.poll();
+                    if (v != null)
+                        mine.add(v);
+                }
+            }));
+        }
+        adders.forEach(Thread::start);
+        pollers.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : adders)
+            t.join();
+        adding.set(false);
+        for (Thread t : pollers)
+            t.join();
+
+        List<Long> rest = new ArrayList<>();
+        Long v;
+        while ((v = ring.poll()) != null)
+            rest.add(v);
+        seen.add(rest);
+        return seen;
+    }
+
+    /**
+     * Within what one poller sees, the values of any one adder must come in the order they were added
+     */
+    private static void assertOrderedPerAdder(List<Long> polled) {
+        long[] last = new long[ADDERS];
+        Arrays.fill(last, -1);
+        for (Long v : polled) {
+            int adder = (int) (v >>> 32);
+            long n = v & 0xffffffffL;
+            assertTrue(String.format("adder %d: %d after %d", adder, n, last[adder]), n > last[adder]);
+            last[adder] = n;
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentAddAndPollWithRoomForEverything() throws Exception {
+        BoundedRing<Long> ring = new BoundedRing<>(ADDERS * PER_ADDER);
+        List<List<Long>> seen = addAndPoll(ring);
+
+        Set<Long> all = new HashSet<>();
+        int count = 0;
+        for (List<Long> polled : seen) {
+            assertOrderedPerAdder(polled);
+            all.addAll(polled);
+            count += polled.size();
+        }
+        // Nothing was dropped, so every value comes out exactly once
+        assertEquals(ADDERS * PER_ADDER, count);
+        assertEquals(ADDERS * PER_ADDER, all.size());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentAddAndPollWhileWrapping() throws Exception {
+        int capacity = 16;
+        BoundedRing<Long> ring = new BoundedRing<>(capacity);
+        List<List<Long>> seen = addAndPoll(ring);
+
+        Set<Long> all = new HashSet<>();
+        int count = 0;
+        for (List<Long> polled : seen) {
+            assertOrderedPerAdder(polled);
+            for (Long v : polled) {
+                assertTrue("never added: " + v, (v >>> 32) < ADDERS && (v & 0xffffffffL) < PER_ADDER);
+                all.add(v);
+            }
+            count += polled.size();
+        }
+        // Old values may be dropped, but none may come out twice
+        assertEquals(count, all.size());
+        assertTrue(seen.get(seen.size() - 1).size() <= capacity);
+        assertTrue(ring.isEmpty());
+        assertEquals(Collections.emptyList(), ring.snapshot());
+    }
+
+    /**
+     * With a single remover, a ring that isn't empty stays that way until it removes, so remove() must not throw even
+     * when it catches an add between claiming its slot and writing it
+     */
+    @Test(timeout = 60000)
+    public void removeAfterIsEmptyWaitsForAnElementBeingWritten() throws Exception {
+        for (int capacity : new int[] {1, 16, ADDERS * PER_ADDER}) {
+            BoundedRing<Long> ring = new BoundedRing<>(capacity);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> adders = new ArrayList<>();
+            for (int a = 0; a < ADDERS; a++) {
+                long tag = (long) a << 32;
+                Thread t = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < PER_ADDER; i++)
+                        ring.add(tag | i);
+                });
+                adders.add(t);
+                t.start();
+            }
+            start.countDown();
+            int removed = 0;
+            while (adders.stream().anyMatch(Thread::isAlive) || !ring.isEmpty()) {
+                if (!ring.isEmpty()) {
+                    assertNotNull(ring.remove());
+                    removed++;
+                }
+            }
+            for (Thread t : adders)
+                t.join();
+            assertTrue(removed > 0);
+            assertTrue(ring.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class JsonTest {
+    private static final String BODY = "{\"status\": \"passed\", \"import-results\": [{\"suite-name\": \"a\"}], " +
+            "\"counts\": [1, 2.5, null, true]}";
+
+    @Test
+    public void readerForGivesOneReaderPerClass() {
+        ObjectReader maps = Json.readerFor(Map.class);
+        assertSame(maps, Json.readerFor(Map.class));
+        assertNotSame(maps, Json.readerFor(List.class));
+    }
+
+    @Test
+    public void threadsAskingAtOnceShareTheReader() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ObjectReader>> asked = new ArrayList<>();
+            for (int i = 0; i < 64; i++)
+                asked.add(exec.submit(() -> Json.readerFor(Set.class)));
+            Set<ObjectReader> readers = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Future<ObjectReader> f : asked)
+                readers.add(f.get());
+            assertEquals(1, readers.size());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void theSharedReaderAndWritersRoundTripATree() throws IOException {
+        JsonNode tree = Json.TREE_READER.readTree(BODY);
+        assertEquals("passed", tree.get("status").textValue());
+        assertEquals(tree, Json.TREE_READER.readTree(Json.WRITER.writeValueAsString(tree)));
+        assertEquals(tree, Json.TREE_READER.readTree(Json.PRETTY_WRITER.writeValueAsString(tree)));
+    }
+}
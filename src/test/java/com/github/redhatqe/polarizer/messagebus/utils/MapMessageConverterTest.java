@@ -0,0 +1,108 @@
+package com.github.redhatqe.polarizer.messagebus.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.activemq.command.ActiveMQMapMessage;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the converter against tree mode, ie running each value through Json.MAPPER.convertValue, which is how
+ * parseMessage used to build the node
+ */
+public class MapMessageConverterTest {
+    private static JsonNode treeMode(Object value) {
+        return Json.MAPPER.convertValue(value, JsonNode.class);
+    }
+
+    private static void assertSameAsTreeMode(Object value) {
+        JsonNode expected = treeMode(value);
+        JsonNode actual = MapMessageConverter.toNode(value);
+        assertEquals("node for " + value, expected, actual);
+        assertEquals("node type for " + value, expected.getNodeType(), actual.getNodeType());
+        assertEquals("number type for " + value, expected.numberType(), actual.numberType());
+    }
+
+    @Test
+    public void everyJmsTypeMatchesTreeMode() {
+        List<Object> values = Arrays.asList("text", "", 42, Integer.MIN_VALUE, 42L, Long.MAX_VALUE, true, false,
+                1.5d, Double.NaN, 2.5f, Float.MAX_VALUE, (short) 7, Short.MIN_VALUE, (byte) 8, Byte.MAX_VALUE, 'c');
+        for (Object value : values)
+            assertSameAsTreeMode(value);
+    }
+
+    @Test
+    public void nullIsANullNode() {
+        assertTrue(MapMessageConverter.toNode((Object) null).isNull());
+        assertEquals(treeMode(null), MapMessageConverter.toNode((Object) null));
+    }
+
+    @Test
+    public void bytesAreWrappedWithoutCopying() throws Exception {
+        byte[] bytes = { 1, 2, 3 };
+        JsonNode node = MapMessageConverter.toNode(bytes);
+        assertEquals(treeMode(bytes), node);
+        assertTrue(node.isBinary());
+        assertSame(bytes, node.binaryValue());
+        assertEquals(Json.WRITER.writeValueAsString(treeMode(bytes)), Json.WRITER.writeValueAsString(node));
+    }
+
+    @Test
+    public void otherTypesFallBackToTheMapper() {
+        List<String> list = Arrays.asList("a", "b");
+        assertEquals(treeMode(list), MapMessageConverter.toNode(list));
+    }
+
+    @Test
+    public void aMapMessageMatchesTreeMode() throws JMSException {
+        ActiveMQMapMessage mm = new ActiveMQMapMessage();
+        mm.setString("string", "passed");
+        mm.setInt("int", 3);
+        mm.setLong("long", 1234567890123L);
+        mm.setBoolean("boolean", true);
+        mm.setDouble("double", 0.25d);
+        mm.setFloat("float", 0.5f);
+        mm.setShort("short", (short) 12);
+        mm.setByte("byte", (byte) 1);
+        mm.setChar("char", 'x');
+        mm.setBytes("bytes", new byte[] { 9, 8, 7 });
+        mm.setObject("null", null);
+
+        ObjectNode expected = Json.NODES.objectNode();
+        List<String> names = mapNames(mm);
+        for (String name : names)
+            expected.set(name, treeMode(mm.getObject(name)));
+
+        ObjectNode actual = MapMessageConverter.toNode(mm);
+        assertEquals(expected, actual);
+        assertEquals(names, fieldNames(actual));
+        assertEquals(11, actual.size());
+    }
+
+    @Test
+    public void anEmptyMapMessage() throws JMSException {
+        assertEquals(Json.NODES.objectNode(), MapMessageConverter.toNode(new ActiveMQMapMessage()));
+    }
+
+    private static List<String> mapNames(MapMessage mm) throws JMSException {
+        List<String> names = new ArrayList<>();
+        Enumeration e = mm.getMapNames();
+        while (e.hasMoreElements())
+            names.add((String) e.nextElement());
+        return names;
+    }
+
+    private static List<String> fieldNames(ObjectNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+}